@@ -1,20 +1,38 @@
 package org.acme.inventory.client;
 
 import io.quarkus.grpc.GrpcClient;
+import io.smallrye.mutiny.Multi;
 
 import io.quarkus.runtime.QuarkusApplication;
 import io.quarkus.runtime.annotations.QuarkusMain;
+import org.acme.inventory.model.ChangesRequest;
 import org.acme.inventory.model.InsertCarRequest;
 import org.acme.inventory.model.InventoryService;
+import org.acme.inventory.model.LicensePlatesRequest;
 import org.acme.inventory.model.RemoveCarRequest;
+import org.acme.inventory.model.RemoveCarsRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @QuarkusMain
 public class InventoryCommand
     implements QuarkusApplication {
 
+    private static final int IMPORT_CHUNK = 10_000;
+
     private static final String USAGE =
         "Usage: inventory <add>|<remove> " +
-            "<license plate number> <manufacturer> <model>";
+            "<license plate number> <manufacturer> <model>\n" +
+            "       inventory import <csv file of license plate " +
+            "number,manufacturer,model lines>\n" +
+            "       inventory remove-all|get <license plate number>...\n" +
+            "       inventory changes [version to resume after]";
 
     @GrpcClient("inventory")
     InventoryService inventory;
@@ -29,6 +47,18 @@ public class InventoryCommand
         } else if ("remove".equals(action) && args.length >= 2) {
             remove(args[1]);
             return 0;
+        } else if ("remove-all".equals(action) && args.length >= 2) {
+            removeAll(List.of(args).subList(1, args.length));
+            return 0;
+        } else if ("get".equals(action) && args.length >= 2) {
+            get(List.of(args).subList(1, args.length));
+            return 0;
+        } else if ("import".equals(action) && args.length >= 2) {
+            importCars(Path.of(args[1]));
+            return 0;
+        } else if ("changes".equals(action)) {
+            changes(args.length >= 2 ? Long.valueOf(args[1]) : null);
+            return 0;
         }
 
         System.err.println(USAGE);
@@ -37,16 +67,67 @@ public class InventoryCommand
 
     public void add(String licensePlateNumber, String manufacturer,
                     String model) {
-        inventory.add(InsertCarRequest.newBuilder()
+        inventory.add(Multi.createFrom().item(InsertCarRequest.newBuilder()
                 .setLicensePlateNumber(licensePlateNumber)
                 .setManufacturer(manufacturer)
                 .setModel(model)
-                .build())
+                .build()))
             .onItem().invoke(carResponse ->
                 System.out.println("Inserted new car " + carResponse))
+            .collect().last()
+            .await().indefinitely();
+    }
+
+    /**
+     * Stream the cars of the file in add calls of {@code IMPORT_CHUNK} cars,
+     * one after the other. The client sends whatever it is given without
+     * waiting for the server, so the file is only read one chunk ahead.
+     */
+    public void importCars(Path file) {
+        long started = System.nanoTime();
+        long imported = Multi.createFrom()
+            .resource(() -> lines(file), lines -> Multi.createFrom()
+                .items(lines.filter(line -> !line.isBlank())))
+            .withFinalizer((Stream<String> lines) -> lines.close())
+            .map(line -> line.split(",", 3))
+            .map(fields -> InsertCarRequest.newBuilder()
+                .setLicensePlateNumber(fields[0].trim())
+                .setManufacturer(fields[1].trim())
+                .setModel(fields[2].trim())
+                .build())
+            .group().intoLists().of(IMPORT_CHUNK)
+            .onItem().transformToMultiAndConcatenate(chunk ->
+                inventory.add(Multi.createFrom().iterable(chunk)))
+            .collect().with(Collectors.counting())
+            .await().indefinitely();
+        System.out.printf("Imported %d cars in %d ms%n", imported,
+            (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Print every change of the inventory until interrupted
+     */
+    public void changes(Long afterVersion) {
+        ChangesRequest.Builder request = ChangesRequest.newBuilder();
+        if (afterVersion != null) {
+            request.setAfterVersion(afterVersion);
+        }
+        inventory.changes(request.build())
+            .onItem().invoke(change -> System.out.println(change.getVersion()
+                + " " + change.getType() + " " + change.getCar().getId()
+                + " " + change.getCar().getLicensePlateNumber()))
+            .collect().last()
             .await().indefinitely();
     }
 
+    private static Stream<String> lines(Path file) {
+        try {
+            return Files.lines(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public void remove(String licensePlateNumber) {
         inventory.remove(RemoveCarRequest.newBuilder()
                 .setLicensePlateNumber(licensePlateNumber)
@@ -55,4 +136,25 @@ public class InventoryCommand
                 System.out.println("Removed car " + carResponse))
             .await().indefinitely();
     }
+
+    /**
+     * Remove the cars in one call, written by the server as one batch
+     */
+    public void removeAll(List<String> licensePlateNumbers) {
+        inventory.removeAll(RemoveCarsRequest.newBuilder()
+                .addAllLicensePlateNumbers(licensePlateNumbers)
+                .build())
+            .onItem().invoke(response -> response.getCarsList().forEach(
+                car -> System.out.println("Removed car " + car)))
+            .await().indefinitely();
+    }
+
+    public void get(List<String> licensePlateNumbers) {
+        inventory.getByPlates(LicensePlatesRequest.newBuilder()
+                .addAllLicensePlateNumbers(licensePlateNumbers)
+                .build())
+            .onItem().invoke(response -> response.getCarsList().forEach(
+                System.out::println))
+            .await().indefinitely();
+    }
 }
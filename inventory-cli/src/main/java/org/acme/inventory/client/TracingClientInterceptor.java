@@ -0,0 +1,41 @@
+package org.acme.inventory.client;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.quarkus.grpc.GlobalInterceptor;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sends every call of one command under the same trace id, so its spans
+ * can be found in inventory-service
+ */
+@ApplicationScoped
+@GlobalInterceptor
+public class TracingClientInterceptor implements ClientInterceptor {
+
+    static final Metadata.Key<String> TRACE_ID = Metadata.Key.of(
+        "x-trace-id", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final String traceId = String.format("%016x",
+        ThreadLocalRandom.current().nextLong());
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+        MethodDescriptor<ReqT, RespT> method, CallOptions options, Channel next) {
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(
+            next.newCall(method, options)) {
+            @Override
+            public void start(Listener<RespT> listener, Metadata headers) {
+                headers.put(TRACE_ID, traceId);
+                super.start(listener, headers);
+            }
+        };
+    }
+}
@@ -1,44 +1,529 @@
 package org.acme.inventory.database;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.Startup;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
 import org.acme.inventory.model.Car;
+import org.acme.inventory.model.CarFilter;
+import org.acme.inventory.model.InventoryChange;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
+/**
+ * The fleet, stored by id with a unique index on the license plate, so
+ * finding, adding and removing a car does not scan or copy the others.
+ * Every car registered or removed gets the next version from the
+ * {@link ChangeLog}. Changes are made one at a time, so they are logged in
+ * the order they took effect; reads do not wait for them.
+ * <p>
+ * The cars of each manufacturer and of each model are indexed too, by id,
+ * so a filtered page only visits the cars of the most selective index
+ * after the cursor. A filter on nothing but a license plate prefix is
+ * paged in plate order straight from the plate index.
+ * <p>
+ * The maps are skip lists rather than hash maps, so they can be paged in
+ * order: a lookup by id or plate takes O(log n) instead of O(1), a page
+ * O(log n + k) for k cars visited.
+ * <p>
+ * Changes are written to a {@link CarJournal} in
+ * {@code inventory.journal.dir} and only return once they are on disk;
+ * they wait for the disk outside the lock, so concurrent changes share a
+ * write. Changes that cannot be written are undone in memory.
+ * The fleet, the id sequence and the version are recovered from it on
+ * startup, building the maps by id and by plate from the snapshot in one
+ * pass each; the two example cars are only registered into an empty
+ * journal. The manufacturer and model indexes are built in the background
+ * afterwards, so startup does not wait for them, and filters on them are
+ * answered from the map by id until then.
+ */
+@Startup
 @ApplicationScoped
 public class CarInventory {
 
-    private List<Car> cars;
+    private NavigableMap<Long, Car> byId = new ConcurrentSkipListMap<>();
+
+    private NavigableMap<String, Car> byPlate = new ConcurrentSkipListMap<>();
+
+    private final Map<String, NavigableMap<Long, Car>> byManufacturer =
+        new ConcurrentHashMap<>();
+
+    private final Map<String, NavigableMap<Long, Car>> byModel =
+        new ConcurrentHashMap<>();
+
+    private final AtomicLong ids = new AtomicLong(0);
+
+    /**
+     * Set once byManufacturer and byModel hold every car
+     */
+    private volatile boolean indexed;
+
+    @Inject
+    ChangeLog changes;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "inventory.journal.dir",
+        defaultValue = "data/inventory")
+    Path directory;
 
-    public static final AtomicLong ids = new AtomicLong(0);
+    @ConfigProperty(name = "inventory.journal.snapshot-every",
+        defaultValue = "100000")
+    int snapshotEvery;
+
+    private CarJournal journal;
 
     @PostConstruct
     void initialize() {
-        cars = new CopyOnWriteArrayList<>();
-        initialData();
+        long started = System.nanoTime();
+        journal = new CarJournal(directory, snapshotEvery);
+        load(journal.recover());
+        for (InventoryChange change : journal.recoveredChanges()) {
+            if (change.type == InventoryChange.Type.REGISTERED) {
+                store(change.car);
+            } else if (byId.containsKey(change.car.id)) {
+                // the car may have been registered in a write that failed
+                unstore(byId.get(change.car.id));
+            }
+        }
+        ids.set(journal.lastId());
+        changes.continueAfter(journal.version());
+        journal.start();
+        Log.infof("Recovered %d cars up to version %d from %s in %d ms",
+            byId.size(), journal.version(), directory,
+            (System.nanoTime() - started) / 1_000_000);
+        if (journal.version() == 0) {
+            initialData();
+        }
+        registry.gaugeMapSize("inventory.cars", List.of(), byId);
+        Infrastructure.getDefaultWorkerPool().execute(this::buildIndexes);
+    }
+
+    /**
+     * Index every car by manufacturer and by model, each index in one pass
+     * over cars in id order. Changes wait meanwhile, so none is missed.
+     */
+    private synchronized void buildIndexes() {
+        long started = System.nanoTime();
+        List<Car> cars = new ArrayList<>(byId.values());
+        byManufacturer.clear();
+        byModel.clear();
+        load(byManufacturer, cars, car -> car.manufacturer);
+        load(byModel, cars, car -> car.model);
+        indexed = true;
+        Log.infof("Indexed %d cars by manufacturer and model in %d ms",
+            cars.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    boolean indexed() {
+        return indexed;
+    }
+
+    @PreDestroy
+    void close() {
+        journal.close();
+    }
+
+    /**
+     * @return all cars, oldest first
+     */
+    public List<Car> findAll() {
+        return new ArrayList<>(byId.values());
+    }
+
+    /**
+     * @param filter conditions the cars have to meet, null for none
+     * @param limit the most cars to return
+     * @param after id of the last car of the previous page, null to start
+     * with the first car
+     * @return the matching cars with an id greater than {@code after},
+     * ordered by id; for a filter on only a license plate prefix, the ones
+     * with a greater license plate than that car, ordered by plate
+     * @throws IllegalArgumentException if a page by license plate prefix
+     * continues after a car that was removed
+     */
+    public List<Car> find(CarFilter filter, int limit, Long after) {
+        if (filter != null && filter.ids == null && filter.model == null
+            && filter.manufacturer == null
+            && filter.licensePlatePrefix != null) {
+            return findByPlatePrefix(filter.licensePlatePrefix, limit, after);
+        }
+        NavigableMap<Long, Car> candidates = candidates(filter);
+        List<Car> cars = new ArrayList<>();
+        for (Car car : (after == null ? candidates :
+            candidates.tailMap(after, false)).values()) {
+            if (cars.size() == limit) {
+                break;
+            }
+            // the candidates come from one index, the rest of the filter
+            // is checked here
+            if (filter == null || matches(car, filter)) {
+                cars.add(car);
+            }
+        }
+        return cars;
+    }
+
+    private List<Car> findByPlatePrefix(String prefix, int limit,
+                                        Long after) {
+        NavigableMap<String, Car> plates = byPlate.subMap(prefix, true,
+            prefix + Character.MAX_VALUE, true);
+        if (after != null) {
+            Car last = byId.get(after);
+            if (last == null) {
+                throw new IllegalArgumentException("Car " + after
+                    + " was removed, the page cannot continue after it");
+            }
+            plates = plates.tailMap(last.licensePlateNumber, false);
+        }
+        List<Car> cars = new ArrayList<>();
+        for (Car car : plates.values()) {
+            if (cars.size() == limit) {
+                break;
+            }
+            // plates are claimed before the cars get their ids
+            if (car.id != null) {
+                cars.add(car);
+            }
+        }
+        return cars;
+    }
+
+    public Optional<Car> findById(long id) {
+        return Optional.ofNullable(byId.get(id));
+    }
+
+    public Optional<Car> findByPlate(String licensePlateNumber) {
+        return licensePlateNumber == null ? Optional.empty() :
+            Optional.ofNullable(byPlate.get(licensePlateNumber));
+    }
+
+    /**
+     * @return the cars with these ids, in the order of the ids; unknown
+     * ids are skipped
+     */
+    public List<Car> findByIds(Collection<Long> ids) {
+        List<Car> cars = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Car car = id == null ? null : byId.get(id);
+            if (car != null) {
+                cars.add(car);
+            }
+        }
+        return cars;
+    }
+
+    /**
+     * @return the cars with these license plates, in the order of the
+     * plates; unknown plates are skipped
+     */
+    public List<Car> findByPlates(Collection<String> licensePlateNumbers) {
+        List<Car> cars = new ArrayList<>(licensePlateNumbers.size());
+        for (String licensePlateNumber : licensePlateNumbers) {
+            Car car = licensePlateNumber == null ? null :
+                byPlate.get(licensePlateNumber);
+            if (car != null) {
+                cars.add(car);
+            }
+        }
+        return cars;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * Give the car the next id and store it
+     * @throws LicensePlateTakenException if another car has the same
+     * license plate
+     */
+    public Car add(Car car) {
+        return addAll(List.of(car)).get(0);
     }
 
-    public List<Car> getCars() {
+    /**
+     * Store the cars under a block of consecutive ids taken at once. Either
+     * all of them are stored or none.
+     * @throws LicensePlateTakenException if a license plate is already
+     * taken or repeated among the cars
+     */
+    public List<Car> addAll(List<Car> cars) {
+        CompletableFuture<Void> written;
+        synchronized (this) {
+            written = register(cars);
+        }
+        awaitWritten(written, () -> cars.forEach(this::unstore));
         return cars;
     }
 
+    /**
+     * @return the removed car, or empty if no car has this license plate
+     */
+    public Optional<Car> remove(String licensePlateNumber) {
+        return licensePlateNumber == null ? Optional.empty() :
+            removeAll(List.of(licensePlateNumber)).stream().findFirst();
+    }
+
+    /**
+     * Remove the cars with these license plates as one batch, logged and
+     * written together. Plates no car has are skipped.
+     * @return the removed cars, in the order of their license plates
+     */
+    public List<Car> removeAll(Collection<String> licensePlateNumbers) {
+        List<Car> removed = new ArrayList<>();
+        CompletableFuture<Void> written;
+        synchronized (this) {
+            for (String licensePlateNumber : licensePlateNumbers) {
+                Car car = licensePlateNumber == null ? null :
+                    byPlate.remove(licensePlateNumber);
+                if (car != null) {
+                    unstore(car);
+                    removed.add(car);
+                }
+            }
+            if (removed.isEmpty()) {
+                return removed;
+            }
+            written = write(InventoryChange.Type.REMOVED, removed);
+        }
+        awaitWritten(written, () -> removed.forEach(this::restore));
+        return removed;
+    }
+
+    private CompletableFuture<Void> register(List<Car> cars) {
+        for (int i = 0; i < cars.size(); i++) {
+            Car car = cars.get(i);
+            if (car.licensePlateNumber == null) {
+                release(cars.subList(0, i));
+                throw new IllegalArgumentException(
+                    "A car needs a license plate");
+            }
+            if (byPlate.putIfAbsent(car.licensePlateNumber, car) != null) {
+                release(cars.subList(0, i));
+                throw new LicensePlateTakenException(car.licensePlateNumber);
+            }
+        }
+        long first = ids.getAndAdd(cars.size()) + 1;
+        for (int i = 0; i < cars.size(); i++) {
+            Car car = cars.get(i);
+            car.id = first + i;
+            byId.put(car.id, car);
+            index(byManufacturer, car.manufacturer, car);
+            index(byModel, car.model, car);
+        }
+        return write(InventoryChange.Type.REGISTERED, cars);
+    }
+
+    /**
+     * Version the changes and queue them for the journal. They are
+     * published to the followers once written; the writer thread completes
+     * appends in order, so they are published in version order.
+     * @return completes once they are on disk and published, or fails,
+     * also when the journal does not take them
+     */
+    private CompletableFuture<Void> write(InventoryChange.Type type,
+                                          List<Car> cars) {
+        List<InventoryChange> appended = changes.append(type, cars);
+        CompletableFuture<Void> written;
+        try {
+            written = journal.append(appended);
+        } catch (RuntimeException e) {
+            written = CompletableFuture.failedFuture(e);
+        }
+        return written.whenComplete((ignored, failure) -> {
+            if (failure == null) {
+                changes.publish(appended);
+            } else {
+                changes.discard(appended);
+            }
+        });
+    }
+
+    /**
+     * Wait for changes that are already applied in memory to be written
+     * @param undo reverts them if they could not be written
+     */
+    private void awaitWritten(CompletableFuture<Void> written,
+                              Runnable undo) {
+        try {
+            written.join();
+        } catch (CompletionException e) {
+            synchronized (this) {
+                undo.run();
+            }
+            throw e.getCause() instanceof RuntimeException cause ?
+                cause : e;
+        }
+    }
+
+    /**
+     * Build the maps by id and by plate from a snapshot, each in one pass
+     * over cars that are already in its order
+     */
+    private void load(CarJournal.Snapshot snapshot) {
+        byId = SortedEntries.skipList(snapshot.cars, car -> car.id);
+        byPlate = SortedEntries.skipList(snapshot.byPlate,
+            car -> car.licensePlateNumber);
+    }
+
+    private static void load(Map<String, NavigableMap<Long, Car>> index,
+                             List<Car> cars, Function<Car, String> key) {
+        Map<String, List<Car>> grouped = new HashMap<>();
+        for (Car car : cars) {
+            String value = key.apply(car);
+            if (value != null) {
+                grouped.computeIfAbsent(value, k -> new ArrayList<>())
+                    .add(car);
+            }
+        }
+        grouped.forEach((value, sorted) -> index.put(value,
+            SortedEntries.skipList(sorted, car -> car.id)));
+    }
+
+    /**
+     * Put a recovered car back, under the id it had
+     */
+    private void store(Car car) {
+        byId.put(car.id, car);
+        byPlate.put(car.licensePlateNumber, car);
+        index(byManufacturer, car.manufacturer, car);
+        index(byModel, car.model, car);
+    }
+
+    /**
+     * Put back a car whose removal could not be written, unless a car
+     * added meanwhile has taken its license plate
+     */
+    private void restore(Car car) {
+        if (byPlate.putIfAbsent(car.licensePlateNumber, car) == null) {
+            byId.put(car.id, car);
+            index(byManufacturer, car.manufacturer, car);
+            index(byModel, car.model, car);
+        }
+    }
+
+    private void unstore(Car car) {
+        byId.remove(car.id);
+        byPlate.remove(car.licensePlateNumber, car);
+        unindex(byManufacturer, car.manufacturer, car.id);
+        unindex(byModel, car.model, car.id);
+    }
+
+    /**
+     * @return a number that changes every time a car is added or removed,
+     * so clients can tell whether their copy of the fleet is still current
+     */
+    public long getVersion() {
+        return changes.version();
+    }
+
+    /**
+     * Give back the license plates claimed by cars that are not stored
+     */
+    private void release(List<Car> cars) {
+        for (Car car : cars) {
+            byPlate.remove(car.licensePlateNumber, car);
+        }
+    }
+
+    /**
+     * @return the cars the filter can match by id, taken from the most
+     * selective index that applies
+     */
+    private NavigableMap<Long, Car> candidates(CarFilter filter) {
+        if (filter == null) {
+            return byId;
+        }
+        if (filter.ids != null) {
+            NavigableMap<Long, Car> cars = new TreeMap<>();
+            for (Long id : filter.ids) {
+                Car car = byId.get(id);
+                if (car != null) {
+                    cars.put(id, car);
+                }
+            }
+            return cars;
+        }
+        if (!indexed) {
+            return byId;
+        }
+        if (filter.model != null) {
+            return byModel.getOrDefault(filter.model,
+                Collections.emptyNavigableMap());
+        }
+        if (filter.manufacturer != null) {
+            return byManufacturer.getOrDefault(filter.manufacturer,
+                Collections.emptyNavigableMap());
+        }
+        return byId;
+    }
+
+    private static boolean matches(Car car, CarFilter filter) {
+        return (filter.manufacturer == null
+                || filter.manufacturer.equals(car.manufacturer))
+            && (filter.model == null || filter.model.equals(car.model))
+            && (filter.licensePlatePrefix == null
+                || car.licensePlateNumber.startsWith(
+                    filter.licensePlatePrefix));
+    }
+
+    private static void index(Map<String, NavigableMap<Long, Car>> index,
+                              String key, Car car) {
+        if (key != null) {
+            index.compute(key, (k, cars) -> {
+                NavigableMap<Long, Car> indexed = cars != null ? cars :
+                    new ConcurrentSkipListMap<>();
+                indexed.put(car.id, car);
+                return indexed;
+            });
+        }
+    }
+
+    private static void unindex(Map<String, NavigableMap<Long, Car>> index,
+                                String key, long id) {
+        if (key != null) {
+            index.computeIfPresent(key, (k, cars) -> {
+                cars.remove(id);
+                return cars.isEmpty() ? null : cars;
+            });
+        }
+    }
+
     private void initialData() {
         Car mazda = new Car();
-        mazda.id = ids.incrementAndGet();
         mazda.manufacturer = "Mazda";
         mazda.model = "6";
         mazda.licensePlateNumber = "ABC123";
-        cars.add(mazda);
+        add(mazda);
 
         Car ford = new Car();
-        ford.id = ids.incrementAndGet();
         ford.manufacturer = "Ford";
         ford.model = "Mustang";
         ford.licensePlateNumber = "XYZ987";
-        cars.add(ford);
+        add(ford);
     }
 
 }
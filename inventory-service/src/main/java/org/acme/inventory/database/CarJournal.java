@@ -0,0 +1,554 @@
+package org.acme.inventory.database;
+
+import io.quarkus.logging.Log;
+import org.acme.inventory.model.Car;
+import org.acme.inventory.model.InventoryChange;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of the changes of the {@link CarInventory} plus a
+ * compact snapshot of the fleet as of some version.
+ * <p>
+ * A log record is {@code [payload length][CRC32C of payload][payload]} and
+ * holds one change with its version. The snapshot holds the cars in id
+ * order, followed by their order by license plate, so both can be loaded
+ * without sorting. Recovery reads the snapshot through a memory mapping
+ * and the changes logged after its version, stopping at the first record
+ * that is torn or fails its checksum, which is where the previous process
+ * died, and cuts the log there.
+ * <p>
+ * Appends are queued and a single writer thread writes every queued record
+ * and forces the log to disk once per batch, so concurrent writers share
+ * one fsync. A batch that cannot be written or forced is cut off the log
+ * again, so later batches follow the last intact record and the failed one
+ * does not come back after a restart. If the log cannot be cut either, the
+ * journal fails every later append.
+ * <p>
+ * The journal keeps the fleet as written, which is what its snapshots
+ * hold; changes that are queued or failed never get into one. It is kept
+ * as the last snapshot and the changes written after it, merged when the
+ * next snapshot is taken, so recovery builds no maps of its own.
+ */
+class CarJournal implements AutoCloseable {
+
+    private static final String LOG = "cars.log";
+    private static final String SNAPSHOT = "cars.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x43415231;
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_BATCH = 1024;
+    private static final Pending STOP = new Pending(List.of(),
+        new byte[0][]);
+
+    private final Path directory;
+    private final int snapshotEvery;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    private FileChannel log;
+    private Thread writer;
+    private final List<InventoryChange> recovered = new ArrayList<>();
+    /**
+     * The fleet as written, the last snapshot and the changes written
+     * after it. Only changed by the thread that writes the log.
+     */
+    private Snapshot written;
+    private final List<InventoryChange> writtenSince = new ArrayList<>();
+    private long lastId;
+    private long version;
+    private volatile boolean closed;
+    private volatile IOException failed;
+
+    CarJournal(Path directory, int snapshotEvery) {
+        this.directory = directory;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    /**
+     * Read the snapshot and the log written after it, and open the log for
+     * appending
+     * @return the snapshot, empty if none was written yet
+     */
+    Snapshot recover() {
+        Snapshot snapshot;
+        try {
+            Files.createDirectories(directory);
+            snapshot = readSnapshot();
+            long validLength = readLog();
+            log = openLog(directory.resolve(LOG));
+            log.truncate(validLength);
+            log.position(validLength);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        written = snapshot;
+        recovered.forEach(this::apply);
+        return snapshot;
+    }
+
+    FileChannel openLog(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return the changes logged after the recovered snapshot, in the order
+     * they have to be replayed
+     */
+    List<InventoryChange> recoveredChanges() {
+        return recovered;
+    }
+
+    /**
+     * @return the largest car id ever handed out, as recovered
+     */
+    long lastId() {
+        return lastId;
+    }
+
+    /**
+     * @return the version of the last change, as recovered
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * Start accepting appends
+     */
+    void start() {
+        writer = new Thread(this::writeLoop, "inventory-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue the changes, in the order they have to be replayed
+     * @return completes once they are on disk
+     */
+    CompletableFuture<Void> append(List<InventoryChange> changes) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        if (failed != null) {
+            throw new IllegalStateException("Journal failed", failed);
+        }
+        byte[][] records = new byte[changes.size()][];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = encode(changes.get(i));
+        }
+        Pending pending = new Pending(changes, records);
+        queue.add(pending);
+        // close() may have failed the queue before this was added
+        if (closed && queue.remove(pending)) {
+            pending.done.completeExceptionally(
+                new IllegalStateException("Journal is closed"));
+        }
+        return pending.done;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (writer != null) {
+                queue.add(STOP);
+                writer.join();
+                queue.forEach(pending -> pending.done.completeExceptionally(
+                    new IllegalStateException("Journal is closed")));
+            }
+            log.force(false);
+            log.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            stopping = batch.remove(STOP);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            try {
+                write(batch);
+                batch.forEach(pending -> pending.done.complete(null));
+                maybeSnapshot();
+            } catch (IOException | RuntimeException e) {
+                batch.forEach(pending -> pending.done.completeExceptionally(
+                    failed == null ? e :
+                        new IllegalStateException("Journal failed", e)));
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write and force the batch, and cut it off the log again if that
+     * fails. Only then is it applied to the written fleet.
+     */
+    private void write(List<Pending> batch) throws IOException {
+        if (failed != null) {
+            throw failed;
+        }
+        int size = 0;
+        for (Pending pending : batch) {
+            for (byte[] record : pending.records) {
+                size += record.length;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Pending pending : batch) {
+            for (byte[] record : pending.records) {
+                buffer.put(record);
+            }
+        }
+        buffer.flip();
+        long start = log.position();
+        try {
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(false);
+        } catch (IOException | RuntimeException e) {
+            // the batch may be torn, or whole but not known to be on disk
+            try {
+                log.truncate(start);
+                log.position(start);
+                log.force(true);
+            } catch (IOException reset) {
+                failed = reset;
+                e.addSuppressed(reset);
+            }
+            throw e;
+        }
+        for (Pending pending : batch) {
+            pending.changes.forEach(this::apply);
+        }
+    }
+
+    private void apply(InventoryChange change) {
+        writtenSince.add(change);
+        if (change.type == InventoryChange.Type.REGISTERED) {
+            lastId = Math.max(lastId, change.car.id);
+        }
+        version = change.version;
+    }
+
+    /**
+     * Only called by the thread that writes the log, so no record can be
+     * written between taking the fleet and cutting the log. A failed
+     * snapshot leaves the log as it was and is tried again later.
+     */
+    private void maybeSnapshot() {
+        if (writtenSince.size() < snapshotEvery) {
+            return;
+        }
+        try {
+            Snapshot snapshot = merge();
+            writeSnapshot(snapshot);
+            log.truncate(0);
+            log.position(0);
+            log.force(true);
+            written = snapshot;
+            writtenSince.clear();
+        } catch (IOException e) {
+            Log.warn("Could not snapshot the inventory journal", e);
+        }
+    }
+
+    /**
+     * @return the last snapshot with the changes written after it applied,
+     * each order rebuilt in one pass and then changed in place
+     */
+    private Snapshot merge() {
+        NavigableMap<Long, Car> byId = new TreeMap<>(
+            new SortedEntries<>(written.cars, car -> car.id));
+        NavigableMap<String, Car> byPlate = new TreeMap<>(
+            new SortedEntries<>(written.byPlate,
+                car -> car.licensePlateNumber));
+        for (InventoryChange change : writtenSince) {
+            Car car = change.car;
+            if (change.type == InventoryChange.Type.REGISTERED) {
+                byId.put(car.id, car);
+                byPlate.put(car.licensePlateNumber, car);
+            } else {
+                Car removed = byId.remove(car.id);
+                if (removed != null) {
+                    byPlate.remove(removed.licensePlateNumber, removed);
+                }
+            }
+        }
+        return new Snapshot(version, lastId, new ArrayList<>(byId.values()),
+            new ArrayList<>(byPlate.values()));
+    }
+
+    private void writeSnapshot(Snapshot snapshot) throws IOException {
+        // manufacturers and models are written once and referenced by index
+        Map<String, Integer> nameIndex = new HashMap<>();
+        List<byte[]> names = new ArrayList<>();
+        int carsBytes = 0;
+        List<byte[]> plates = new ArrayList<>(snapshot.cars.size());
+        for (Car car : snapshot.cars) {
+            for (String name : new String[] {car.manufacturer, car.model}) {
+                if (name != null && !nameIndex.containsKey(name)) {
+                    nameIndex.put(name, names.size());
+                    names.add(name.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            byte[] plate = car.licensePlateNumber
+                .getBytes(StandardCharsets.UTF_8);
+            plates.add(plate);
+            carsBytes += 8 + 4 + 4 + 2 + plate.length + 4;
+        }
+        int namesBytes = 0;
+        for (byte[] name : names) {
+            namesBytes += 2 + name.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 8 + 8 + 4 + namesBytes
+            + 4 + carsBytes + 4);
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putLong(snapshot.version);
+        buffer.putLong(snapshot.lastId);
+        buffer.putInt(names.size());
+        for (byte[] name : names) {
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+        }
+        buffer.putInt(snapshot.cars.size());
+        long[] ids = new long[snapshot.cars.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Car car = snapshot.cars.get(i);
+            buffer.putLong(car.id);
+            buffer.putInt(car.manufacturer == null ? -1 :
+                nameIndex.get(car.manufacturer));
+            buffer.putInt(car.model == null ? -1 : nameIndex.get(car.model));
+            buffer.putShort((short) plates.get(i).length);
+            buffer.put(plates.get(i));
+            ids[i] = car.id;
+        }
+        // the plate order, as positions in the id order
+        for (Car car : snapshot.byPlate) {
+            buffer.putInt(Arrays.binarySearch(ids, car.id));
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT),
+            StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Snapshot readSnapshot() throws IOException {
+        Path file = directory.resolve(SNAPSHOT);
+        if (!Files.exists(file)) {
+            return new Snapshot(0, 0, List.of(), List.of());
+        }
+        try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int length = buffer.limit() - 4;
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.duplicate().limit(length));
+            if (buffer.getInt(0) != SNAPSHOT_MAGIC ||
+                buffer.getInt(length) != (int) crc.getValue()) {
+                throw new IllegalStateException(
+                    "Corrupt inventory snapshot " + file);
+            }
+            buffer.position(4);
+            version = buffer.getLong();
+            lastId = buffer.getLong();
+            String[] names = new String[buffer.getInt()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = getString(buffer);
+            }
+            Car[] cars = new Car[buffer.getInt()];
+            byte[] plate = new byte[Short.MAX_VALUE];
+            for (int i = 0; i < cars.length; i++) {
+                Car car = new Car();
+                car.id = buffer.getLong();
+                int manufacturer = buffer.getInt();
+                car.manufacturer = manufacturer < 0 ? null :
+                    names[manufacturer];
+                int model = buffer.getInt();
+                car.model = model < 0 ? null : names[model];
+                short plateLength = buffer.getShort();
+                buffer.get(plate, 0, plateLength);
+                car.licensePlateNumber = new String(plate, 0, plateLength,
+                    StandardCharsets.UTF_8);
+                cars[i] = car;
+            }
+            Car[] byPlate = new Car[cars.length];
+            for (int i = 0; i < byPlate.length; i++) {
+                byPlate[i] = cars[buffer.getInt()];
+            }
+            return new Snapshot(version, lastId, Arrays.asList(cars),
+                Arrays.asList(byPlate));
+        }
+    }
+
+    /**
+     * @return the length of the log up to the last intact record
+     */
+    private long readLog() throws IOException {
+        Path file = directory.resolve(LOG);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        CRC32C crc = new CRC32C();
+        while (buffer.remaining() >= HEADER_BYTES) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                Log.warnf("Dropping torn inventory log record at %d", start);
+                return start;
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                Log.warnf("Dropping corrupt inventory log record at %d",
+                    start);
+                return start;
+            }
+            InventoryChange change = decode(buffer);
+            if (change.version <= version) {
+                // already in the snapshot
+                continue;
+            }
+            recovered.add(change);
+        }
+        return buffer.position();
+    }
+
+    private static byte[] encode(InventoryChange change) {
+        byte[] plate = bytes(change.car.licensePlateNumber);
+        byte[] manufacturer = bytes(change.car.manufacturer);
+        byte[] model = bytes(change.car.model);
+        int length = 1 + 8 + 8 + 2 + plate.length + 2 + manufacturer.length
+            + 2 + model.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + length);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put((byte) change.type.ordinal());
+        buffer.putLong(change.version);
+        buffer.putLong(change.car.id);
+        putString(buffer, change.car.licensePlateNumber, plate);
+        putString(buffer, change.car.manufacturer, manufacturer);
+        putString(buffer, change.car.model, model);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), HEADER_BYTES, length);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static InventoryChange decode(ByteBuffer buffer) {
+        InventoryChange change = new InventoryChange();
+        change.type = InventoryChange.Type.values()[buffer.get()];
+        change.version = buffer.getLong();
+        change.car = new Car();
+        change.car.id = buffer.getLong();
+        change.car.licensePlateNumber = getString(buffer);
+        change.car.manufacturer = getString(buffer);
+        change.car.model = getString(buffer);
+        return change;
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? new byte[0] :
+            value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, String value,
+                                  byte[] bytes) {
+        buffer.putShort((short) (value == null ? -1 : bytes.length));
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The fleet as of a version, with the largest id handed out so far
+     */
+    static final class Snapshot {
+
+        final long version;
+        final long lastId;
+        final List<Car> cars;
+        final List<Car> byPlate;
+
+        /**
+         * @param cars ordered by id
+         * @param byPlate the same cars, ordered by license plate
+         */
+        Snapshot(long version, long lastId, List<Car> cars,
+                 List<Car> byPlate) {
+            this.version = version;
+            this.lastId = lastId;
+            this.cars = cars;
+            this.byPlate = byPlate;
+        }
+    }
+
+    private static final class Pending {
+
+        final List<InventoryChange> changes;
+        final byte[][] records;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(List<InventoryChange> changes, byte[][] records) {
+            this.changes = changes;
+            this.records = records;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.acme.inventory.database;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.subscription.BackPressureFailure;
+import io.smallrye.mutiny.subscription.BackPressureStrategy;
+import io.smallrye.mutiny.subscription.MultiEmitter;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.acme.inventory.model.Car;
+import org.acme.inventory.model.InventoryChange;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Numbers every change of the {@link CarInventory} with the next version
+ * and hands it to the followers of the inventory in that order, once it
+ * is written to the journal. Changes whose write failed are dropped, so
+ * followers never see a change that is lost on restart; their versions
+ * are skipped.
+ * <p>
+ * The last {@code inventory.changes.log-size} changes are kept, so a
+ * follower can resume after the version it saw last. A follower that is
+ * further behind, either resuming or not reading fast enough, has to load
+ * the cars again. So does one resuming after a version from before this
+ * process started, the changes are not kept across restarts.
+ */
+@ApplicationScoped
+public class ChangeLog {
+
+    private final InventoryChange[] changes;
+
+    private final Set<MultiEmitter<? super InventoryChange>> followers =
+        new LinkedHashSet<>();
+
+    private long version;
+
+    private long published;
+
+    private long started;
+
+    public ChangeLog(@ConfigProperty(name = "inventory.changes.log-size",
+        defaultValue = "100000") int size) {
+        this.changes = new InventoryChange[size];
+    }
+
+    /**
+     * @return the version of the last change written to the journal
+     */
+    public synchronized long version() {
+        return published;
+    }
+
+    /**
+     * Number the next change after the version recovered from disk
+     */
+    synchronized void continueAfter(long recovered) {
+        version = recovered;
+        published = recovered;
+        started = recovered;
+    }
+
+    /**
+     * Give each car its own version. The changes are passed on once they
+     * are {@link #published}.
+     * @return the changes, in version order
+     */
+    synchronized List<InventoryChange> append(InventoryChange.Type type,
+                                              List<Car> cars) {
+        List<InventoryChange> appended = new ArrayList<>(cars.size());
+        for (Car car : cars) {
+            InventoryChange change =
+                new InventoryChange(type, ++version, car);
+            changes[slot(version)] = change;
+            appended.add(change);
+        }
+        return appended;
+    }
+
+    /**
+     * Pass appended changes on to the followers, in the order they were
+     * written
+     */
+    synchronized void publish(List<InventoryChange> written) {
+        for (InventoryChange change : written) {
+            for (MultiEmitter<? super InventoryChange> follower : followers) {
+                follower.emit(change);
+            }
+            published = change.version;
+        }
+    }
+
+    /**
+     * Drop appended changes that could not be written. Their versions are
+     * never reported, after a restart they are given to other changes.
+     */
+    synchronized void discard(List<InventoryChange> unwritten) {
+        for (InventoryChange change : unwritten) {
+            if (changes[slot(change.version)] == change) {
+                changes[slot(change.version)] = null;
+            }
+        }
+    }
+
+    /**
+     * @param after the version to resume after, or null to start with the
+     * next change
+     * @return the changes after {@code after}, as they happen; fails with
+     * {@link ChangesUnavailableException} if they are not kept or the
+     * follower falls too far behind
+     */
+    public Multi<InventoryChange> follow(Long after) {
+        return Multi.createFrom().<InventoryChange>emitter(
+                emitter -> follow(emitter, after), BackPressureStrategy.ERROR)
+            .onOverflow().buffer(changes.length)
+            .onFailure(BackPressureFailure.class)
+            .transform(e -> new ChangesUnavailableException("Fell more than "
+                + changes.length + " changes behind, resume after the last "
+                + "version received"))
+            .emitOn(Infrastructure.getDefaultExecutor());
+    }
+
+    private synchronized void follow(
+        MultiEmitter<? super InventoryChange> emitter, Long after) {
+        long from = after != null ? after : published;
+        if (from > published
+            || from < Math.max(started, version - changes.length)) {
+            emitter.fail(new ChangesUnavailableException(from));
+            return;
+        }
+        // later changes are emitted when they are published
+        for (long missed = from + 1; missed <= published; missed++) {
+            InventoryChange change = changes[slot(missed)];
+            if (change != null) {
+                emitter.emit(change);
+            }
+        }
+        emitter.onTermination(() -> unfollow(emitter));
+        followers.add(emitter);
+    }
+
+    private synchronized void unfollow(
+        MultiEmitter<? super InventoryChange> emitter) {
+        followers.remove(emitter);
+    }
+
+    private int slot(long version) {
+        return (int) ((version - 1) % changes.length);
+    }
+}
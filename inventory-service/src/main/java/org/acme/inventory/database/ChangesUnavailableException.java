@@ -0,0 +1,18 @@
+package org.acme.inventory.database;
+
+/**
+ * Thrown when changes are asked for after a version that is no longer, or
+ * not yet, known, in which case the consumer has to load the cars again,
+ * or when a consumer stops keeping up with the changes
+ */
+public class ChangesUnavailableException extends RuntimeException {
+
+    public ChangesUnavailableException(long version) {
+        this("Changes after version " + version + " are not available, "
+            + "load the cars again");
+    }
+
+    public ChangesUnavailableException(String message) {
+        super(message);
+    }
+}
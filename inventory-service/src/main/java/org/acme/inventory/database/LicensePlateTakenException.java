@@ -0,0 +1,13 @@
+package org.acme.inventory.database;
+
+/**
+ * Thrown when a car is added with the license plate of a car already in
+ * the inventory
+ */
+public class LicensePlateTakenException extends RuntimeException {
+
+    public LicensePlateTakenException(String licensePlateNumber) {
+        super("A car with license plate " + licensePlateNumber
+            + " is already registered");
+    }
+}
@@ -0,0 +1,155 @@
+package org.acme.inventory.database;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * Values already in the order of their keys, as a read-only
+ * {@link SortedMap} in the natural order of the keys. Lookups and the
+ * first and last keys binary search the list, views share it.
+ * <p>
+ * Passed to the {@link ConcurrentSkipListMap} or {@link java.util.TreeMap}
+ * constructor, the entries are linked in one pass instead of being put one
+ * by one, each searching for its place. That is what makes loading a
+ * snapshot fast.
+ */
+final class SortedEntries<K extends Comparable<? super K>, V>
+    extends AbstractMap<K, V> implements SortedMap<K, V> {
+
+    private final List<V> values;
+    private final Function<V, K> key;
+
+    /**
+     * @param values ordered by their key, without repeated keys
+     */
+    SortedEntries(List<V> values, Function<V, K> key) {
+        this.values = values;
+        this.key = key;
+    }
+
+    /**
+     * @param values ordered by their key, without repeated keys
+     */
+    static <K extends Comparable<? super K>, V> ConcurrentSkipListMap<K, V>
+        skipList(List<V> values, Function<V, K> key) {
+        return new ConcurrentSkipListMap<>(new SortedEntries<>(values, key));
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                Iterator<V> iterator = values.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        V value = iterator.next();
+                        return Map.entry(key.apply(value), value);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.size();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object k) {
+        int index = indexOf((K) k);
+        return index < values.size() && keyAt(index).equals(k) ?
+            values.get(index) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object k) {
+        return get(k) != null;
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return null;
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        if (fromKey.compareTo(toKey) > 0) {
+            throw new IllegalArgumentException(fromKey + " > " + toKey);
+        }
+        return view(indexOf(fromKey), indexOf(toKey));
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+        return view(0, indexOf(toKey));
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+        return view(indexOf(fromKey), values.size());
+    }
+
+    @Override
+    public K firstKey() {
+        if (values.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return keyAt(0);
+    }
+
+    @Override
+    public K lastKey() {
+        if (values.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return keyAt(values.size() - 1);
+    }
+
+    private SortedMap<K, V> view(int from, int to) {
+        return new SortedEntries<>(values.subList(from, to), key);
+    }
+
+    private K keyAt(int index) {
+        return key.apply(values.get(index));
+    }
+
+    /**
+     * @return the position of the first key not less than {@code k}
+     */
+    private int indexOf(K k) {
+        int low = 0;
+        int high = values.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keyAt(middle).compareTo(k) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
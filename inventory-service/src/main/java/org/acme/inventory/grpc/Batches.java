@@ -0,0 +1,192 @@
+package org.acme.inventory.grpc;
+
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups items into lists of up to {@code size}, or of what arrived within
+ * {@code window} after the first item of a list.
+ * <p>
+ * {@code group().intoLists().of(size, window)} does the same, but requests
+ * every item at once. This asks upstream for at most one list's worth of
+ * items at a time, and only while downstream wants another list. Items
+ * requested but not received yet count towards the list being filled, so
+ * no more than {@code size} items are ever held. A producer that is faster
+ * than downstream is held back instead of buffered.
+ */
+final class Batches<T> implements Flow.Publisher<List<T>> {
+
+    private final Flow.Publisher<T> upstream;
+    private final int size;
+    private final Duration window;
+
+    Batches(Flow.Publisher<T> upstream, int size, Duration window) {
+        this.upstream = upstream;
+        this.size = size;
+        this.window = window;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<T>> downstream) {
+        upstream.subscribe(new Batcher(downstream));
+    }
+
+    /**
+     * Every signal is handled under its lock. Signals raised while one is
+     * being handled on the same thread, e.g. a request from within
+     * {@code onNext}, only mark that there is more to do, so downstream is
+     * never called recursively.
+     */
+    private final class Batcher
+        implements Flow.Subscriber<T>, Flow.Subscription {
+
+        private final Flow.Subscriber<? super List<T>> downstream;
+        private Flow.Subscription subscription;
+        private List<T> batch = new ArrayList<>();
+        private ScheduledFuture<?> timer;
+        private boolean expired;
+        /**
+         * Lists downstream asked for and did not get yet
+         */
+        private long demand;
+        /**
+         * Items requested from upstream and not received yet
+         */
+        private long outstanding;
+        private boolean completed;
+        private boolean finished;
+        private boolean draining;
+        private boolean missed;
+
+        Batcher(Flow.Subscriber<? super List<T>> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (finished) {
+                return;
+            }
+            if (n <= 0) {
+                cancel();
+                downstream.onError(new IllegalArgumentException(
+                    "Requests must be positive, got " + n));
+                return;
+            }
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            drain();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            finished = true;
+            stopTimer();
+            subscription.cancel();
+        }
+
+        @Override
+        public synchronized void onNext(T item) {
+            if (finished) {
+                return;
+            }
+            outstanding--;
+            batch.add(item);
+            if (batch.size() == 1 && size > 1) {
+                List<T> timed = batch;
+                timer = Infrastructure.getDefaultWorkerPool().schedule(
+                    () -> expire(timed), window.toNanos(),
+                    TimeUnit.NANOSECONDS);
+            }
+            drain();
+        }
+
+        @Override
+        public synchronized void onError(Throwable failure) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            stopTimer();
+            downstream.onError(failure);
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            completed = true;
+            drain();
+        }
+
+        private synchronized void expire(List<T> timed) {
+            if (batch == timed) {
+                expired = true;
+                drain();
+            }
+        }
+
+        private void drain() {
+            if (draining) {
+                missed = true;
+                return;
+            }
+            draining = true;
+            try {
+                do {
+                    missed = false;
+                    step();
+                } while (missed && !finished);
+            } finally {
+                draining = false;
+            }
+        }
+
+        private void step() {
+            if (finished) {
+                return;
+            }
+            if (demand > 0 && !batch.isEmpty() &&
+                (batch.size() >= size || expired || completed)) {
+                List<T> full = batch;
+                batch = new ArrayList<>();
+                expired = false;
+                stopTimer();
+                if (demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+                downstream.onNext(full);
+                missed = true;
+                return;
+            }
+            if (completed) {
+                if (batch.isEmpty()) {
+                    finished = true;
+                    downstream.onComplete();
+                }
+                return;
+            }
+            long wanted = size - batch.size() - outstanding;
+            if (demand > 0 && wanted > 0) {
+                outstanding += wanted;
+                subscription.request(wanted);
+            }
+        }
+
+        private void stopTimer() {
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+        }
+    }
+}
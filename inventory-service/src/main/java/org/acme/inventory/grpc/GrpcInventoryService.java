@@ -1,63 +1,221 @@
 package org.acme.inventory.grpc;
 
+import io.grpc.Status;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.grpc.GrpcService;
 import io.quarkus.logging.Log;
+import io.smallrye.common.annotation.Blocking;
 import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import jakarta.inject.Inject;
 import org.acme.inventory.database.CarInventory;
+import org.acme.inventory.database.ChangeLog;
+import org.acme.inventory.database.ChangesUnavailableException;
+import org.acme.inventory.database.LicensePlateTakenException;
 import org.acme.inventory.model.Car;
+import org.acme.inventory.model.CarChangeResponse;
+import org.acme.inventory.model.CarIdsRequest;
 import org.acme.inventory.model.CarResponse;
+import org.acme.inventory.model.CarsResponse;
+import org.acme.inventory.model.ChangesRequest;
 import org.acme.inventory.model.InsertCarRequest;
 import org.acme.inventory.model.InventoryService;
+import org.acme.inventory.model.LicensePlatesRequest;
 import org.acme.inventory.model.RemoveCarRequest;
+import org.acme.inventory.model.RemoveCarsRequest;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
-import java.util.Optional;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 @GrpcService
+@Timed(value = "endpoint.latency", histogram = true)
 public class GrpcInventoryService implements InventoryService {
 
     @Inject
     CarInventory inventory;
 
+    @Inject
+    ChangeLog changes;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "inventory.import.batch-size", defaultValue = "500")
+    int batchSize;
+
+    @ConfigProperty(name = "inventory.import.window", defaultValue = "50ms")
+    Duration window;
+
+    /**
+     * Cars are committed in batches of up to {@code batchSize}, or of what
+     * arrived within {@code window}, each under one block of ids. The
+     * responses of a batch are emitted in order before the next batch is
+     * taken. No more than one batch's worth of cars is requested from the
+     * client at a time, and only once the responses before are read, so
+     * gRPC flow control holds back a client that sends faster than its
+     * cars are committed.
+     * <p>
+     * A license plate that is taken rejects its whole batch, so the cars
+     * of that batch are then committed one at a time. The stream fails
+     * with ALREADY_EXISTS at the first taken plate, after the responses of
+     * the cars before it; no car after it is stored.
+     * <p>
+     * Batches wait for the journal, so they are not committed on the event
+     * loop.
+     */
     @Override
+    @Blocking
     public Multi<CarResponse> add(Multi<InsertCarRequest> requests) {
-        return requests
-            .map(request -> {
-                Car car = new Car();
-                car.licensePlateNumber = request.getLicensePlateNumber();
-                car.manufacturer = request.getManufacturer();
-                car.model = request.getModel();
-                car.id = CarInventory.ids.incrementAndGet();
-                return car;
-            }).onItem().invoke(car -> {
-                Log.info("Persisting " + car);
-                inventory.getCars().add(car);
-            }).map(car -> CarResponse.newBuilder()
-                .setLicensePlateNumber(car.licensePlateNumber)
-                .setManufacturer(car.manufacturer)
-                .setModel(car.model)
-                .setId(car.id)
-                .build());
+        Import progress = new Import();
+        Multi<Car> cars = requests.map(request -> {
+            Car car = new Car();
+            car.licensePlateNumber = request.getLicensePlateNumber();
+            car.manufacturer = request.getManufacturer();
+            car.model = request.getModel();
+            return car;
+        });
+        return Multi.createFrom()
+            .publisher(new Batches<>(cars, batchSize, window))
+            .onItem().transformToMultiAndConcatenate(
+                batch -> commit(batch, progress))
+            .map(GrpcInventoryService::toResponse)
+            .onCompletion().invoke(progress::report)
+            .onFailure(LicensePlateTakenException.class)
+            .transform(e -> Status.ALREADY_EXISTS
+                .withDescription(e.getMessage()).asRuntimeException());
     }
 
     @Override
+    @Blocking
     public Uni<CarResponse> remove(RemoveCarRequest request) {
-        Optional<Car> optionalCar = inventory.getCars().stream()
-            .filter(car -> request.getLicensePlateNumber()
-                .equals(car.licensePlateNumber))
-            .findFirst();
-
-        if (optionalCar.isPresent()) {
-            Car removedCar = optionalCar.get();
-            inventory.getCars().remove(removedCar);
-            return Uni.createFrom().item(CarResponse.newBuilder()
-                .setLicensePlateNumber(removedCar.licensePlateNumber)
-                .setManufacturer(removedCar.manufacturer)
-                .setModel(removedCar.model)
-                .setId(removedCar.id)
-                .build());
+        return Uni.createFrom().item(inventory
+            .remove(request.getLicensePlateNumber())
+            .map(GrpcInventoryService::toResponse)
+            .orElse(null));
+    }
+
+    /**
+     * Remove the cars in one batch, written to the journal together.
+     * Plates no car has are left out of the response.
+     */
+    @Override
+    @Blocking
+    public Uni<CarsResponse> removeAll(RemoveCarsRequest request) {
+        return Uni.createFrom().item(toResponse(inventory
+            .removeAll(request.getLicensePlateNumbersList())));
+    }
+
+    @Override
+    public Uni<CarsResponse> getByIds(CarIdsRequest request) {
+        return Uni.createFrom().item(toResponse(inventory
+            .findByIds(request.getIdsList())));
+    }
+
+    @Override
+    public Uni<CarsResponse> getByPlates(LicensePlatesRequest request) {
+        return Uni.createFrom().item(toResponse(inventory
+            .findByPlates(request.getLicensePlateNumbersList())));
+    }
+
+    /**
+     * Every car registered or removed from the requested version on, in
+     * version order. OUT_OF_RANGE means the client has to load the cars
+     * again before following the changes.
+     */
+    @Override
+    public Multi<CarChangeResponse> changes(ChangesRequest request) {
+        return changes.follow(request.hasAfterVersion() ?
+                request.getAfterVersion() : null)
+            .map(change -> CarChangeResponse.newBuilder()
+                .setType(CarChangeResponse.Type.valueOf(change.type.name()))
+                .setVersion(change.version)
+                .setCar(toResponse(change.car))
+                .build())
+            .onFailure(ChangesUnavailableException.class)
+            .transform(e -> Status.OUT_OF_RANGE
+                .withDescription(e.getMessage()).asRuntimeException());
+    }
+
+    private Multi<Car> commit(List<Car> batch, Import progress) {
+        try {
+            commitBatch(batch, progress);
+            return Multi.createFrom().iterable(batch);
+        } catch (LicensePlateTakenException e) {
+            return commitEach(batch, progress);
+        }
+    }
+
+    /**
+     * Commit the cars of a rejected batch one at a time
+     * @return the stored cars, failing after them at the first car whose
+     * license plate is taken
+     */
+    private Multi<Car> commitEach(List<Car> batch, Import progress) {
+        List<Car> stored = new ArrayList<>(batch.size());
+        for (Car car : batch) {
+            try {
+                commitBatch(List.of(car), progress);
+            } catch (LicensePlateTakenException e) {
+                return Multi.createBy().concatenating().streams(
+                    Multi.createFrom().iterable(stored),
+                    Multi.createFrom().failure(e));
+            }
+            stored.add(car);
+        }
+        return Multi.createFrom().iterable(stored);
+    }
+
+    private void commitBatch(List<Car> batch, Import progress) {
+        long started = System.nanoTime();
+        inventory.addAll(batch);
+        registry.timer("inventory.import.commit")
+            .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        registry.summary("inventory.import.batch").record(batch.size());
+        registry.counter("inventory.import.cars").increment(batch.size());
+        progress.cars += batch.size();
+        progress.batches++;
+        Log.debugf("Persisted %d cars", batch.size());
+    }
+
+    /**
+     * Protobuf has no null strings, a car registered without a manufacturer
+     * or model gets empty ones
+     */
+    private static CarResponse toResponse(Car car) {
+        return CarResponse.newBuilder()
+            .setLicensePlateNumber(car.licensePlateNumber)
+            .setManufacturer(Objects.requireNonNullElse(car.manufacturer, ""))
+            .setModel(Objects.requireNonNullElse(car.model, ""))
+            .setId(car.id)
+            .build();
+    }
+
+    private static CarsResponse toResponse(List<Car> cars) {
+        CarsResponse.Builder response = CarsResponse.newBuilder();
+        for (Car car : cars) {
+            response.addCars(toResponse(car));
+        }
+        return response.build();
+    }
+
+    /**
+     * Progress of one import stream
+     */
+    private static final class Import {
+
+        final long started = System.nanoTime();
+        long cars;
+        long batches;
+
+        void report() {
+            double seconds = (System.nanoTime() - started) / 1e9;
+            Log.infof("Imported %d cars in %d batches in %.1f s, "
+                + "%.0f cars/s", cars, batches, seconds, cars / seconds);
         }
-        return Uni.createFrom().nullItem();
     }
 }
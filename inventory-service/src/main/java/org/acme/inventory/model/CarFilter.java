@@ -0,0 +1,15 @@
+package org.acme.inventory.model;
+
+import java.util.List;
+
+/**
+ * Conditions a car has to meet to be returned, unset ones match every car
+ */
+public class CarFilter {
+
+    public List<Long> ids;
+    public String manufacturer;
+    public String model;
+    public String licensePlatePrefix;
+
+}
@@ -0,0 +1,26 @@
+package org.acme.inventory.model;
+
+/**
+ * A car registered in or removed from the inventory, with the inventory
+ * version the change produced
+ */
+public class InventoryChange {
+
+    public enum Type {
+        REGISTERED,
+        REMOVED
+    }
+
+    public Type type;
+    public long version;
+    public Car car;
+
+    public InventoryChange() {
+    }
+
+    public InventoryChange(Type type, long version, Car car) {
+        this.type = type;
+        this.version = version;
+        this.car = car;
+    }
+}
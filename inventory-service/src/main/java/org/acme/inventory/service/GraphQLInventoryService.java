@@ -1,45 +1,93 @@
 package org.acme.inventory.service;
 
+import io.micrometer.core.annotation.Timed;
+import io.smallrye.graphql.api.Subscription;
+import io.smallrye.mutiny.Multi;
 import org.acme.inventory.database.CarInventory;
+import org.acme.inventory.database.ChangeLog;
 import org.acme.inventory.model.Car;
+import org.acme.inventory.model.CarFilter;
+import org.acme.inventory.model.InventoryChange;
+import org.eclipse.microprofile.graphql.Description;
 import org.eclipse.microprofile.graphql.GraphQLApi;
+import org.eclipse.microprofile.graphql.GraphQLException;
 import org.eclipse.microprofile.graphql.Mutation;
+import org.eclipse.microprofile.graphql.NonNull;
 import org.eclipse.microprofile.graphql.Query;
 
 import jakarta.inject.Inject;
 import java.util.List;
-import java.util.Optional;
 
 @GraphQLApi
+@Timed(value = "endpoint.latency", histogram = true)
 public class GraphQLInventoryService {
 
     @Inject
     CarInventory inventory;
 
+    @Inject
+    ChangeLog changes;
+
+    @Query
+    @Description("Cars matching the filter, ordered by id, or by license "
+        + "plate if the filter only has a license plate prefix. A page "
+        + "holds up to 'first' cars and starts after the car with id "
+        + "'after'.")
+    public List<Car> cars(CarFilter filter, Integer first, Long after)
+        throws GraphQLException {
+        if (first != null && first < 0) {
+            throw new GraphQLException("first must not be negative");
+        }
+        try {
+            return inventory.find(filter,
+                first != null ? first : Integer.MAX_VALUE, after);
+        } catch (IllegalArgumentException e) {
+            throw new GraphQLException(e.getMessage());
+        }
+    }
+
+    @Query
+    @Description("The cars with these ids, in the order of the ids. "
+        + "Unknown ids are left out.")
+    public List<Car> carsByIds(@NonNull List<Long> ids) {
+        return inventory.findByIds(ids);
+    }
+
     @Query
-    public List<Car> cars() {
-        return inventory.getCars();
+    @Description("The cars with these license plates, in the order of the "
+        + "plates. Unknown plates are left out.")
+    public List<Car> carsByPlates(
+        @NonNull List<String> licensePlateNumbers) {
+        return inventory.findByPlates(licensePlateNumbers);
+    }
+
+    @Query
+    public long inventoryVersion() {
+        return inventory.getVersion();
+    }
+
+    @Subscription
+    @Description("Every car registered or removed after version 'after', "
+        + "or from the next change on, in version order")
+    public Multi<InventoryChange> changes(Long after) {
+        return changes.follow(after);
     }
 
     @Mutation
     public Car register(Car car) {
-        car.id = CarInventory.ids.incrementAndGet();
-        inventory.getCars().add(car);
-        return car;
+        return inventory.add(car);
     }
 
     @Mutation
     public boolean remove(String licensePlateNumber) {
-        List<Car> cars = inventory.getCars();
-        Optional<Car> toBeRemoved = cars.stream()
-            .filter(car -> car.licensePlateNumber
-                .equals(licensePlateNumber))
-            .findAny();
-        if(toBeRemoved.isPresent()) {
-            return cars.remove(toBeRemoved.get());
-        } else {
-            return false;
-        }
+        return inventory.remove(licensePlateNumber).isPresent();
+    }
+
+    @Mutation
+    @Description("Remove the cars with these license plates in one batch "
+        + "and return them. Unknown plates are left out.")
+    public List<Car> removeAll(@NonNull List<String> licensePlateNumbers) {
+        return inventory.removeAll(licensePlateNumbers);
     }
 
 }
@@ -0,0 +1,40 @@
+package org.acme.inventory.tracing;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * One request handled by this service, as part of a trace that may span
+ * several services
+ * <p>
+ * The services share no module, each has a copy of this class. Keep the
+ * copies the same.
+ */
+public class Span {
+
+    public final String traceId;
+    public final String spanId;
+    public final String name;
+    public final long startMicros;
+    public final long durationMicros;
+    public final int status;
+
+    public Span(String traceId, String spanId, String name, long startMicros,
+                long durationMicros, int status) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.name = name;
+        this.startMicros = startMicros;
+        this.durationMicros = durationMicros;
+        this.status = status;
+    }
+
+    JsonObject toJson() {
+        return new JsonObject()
+            .put("traceId", traceId)
+            .put("spanId", spanId)
+            .put("name", name)
+            .put("startMicros", startMicros)
+            .put("durationMicros", durationMicros)
+            .put("status", status);
+    }
+}
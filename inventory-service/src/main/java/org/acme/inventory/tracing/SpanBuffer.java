@@ -0,0 +1,51 @@
+package org.acme.inventory.tracing;
+
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The most recent spans, in a fixed-size ring. Recording claims a slot
+ * with a single atomic increment and overwrites the oldest span, so it
+ * never blocks and never allocates beyond the span itself.
+ * <p>
+ * The services share no module, each has a copy of this class. Keep the
+ * copies the same.
+ */
+@Singleton
+public class SpanBuffer {
+
+    private final AtomicReferenceArray<Span> slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    public SpanBuffer(@ConfigProperty(name = "tracing.buffer-size",
+        defaultValue = "1024") int size) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    public void record(Span span) {
+        slots.set((int) (next.getAndIncrement() & mask), span);
+    }
+
+    /**
+     * @return the spans still in the ring, newest first
+     */
+    public List<Span> recent() {
+        long last = next.get();
+        List<Span> recent = new ArrayList<>();
+        for (long i = last - 1; i >= 0 && i >= last - slots.length(); i--) {
+            Span span = slots.get((int) (i & mask));
+            if (span != null) {
+                recent.add(span);
+            }
+        }
+        return recent;
+    }
+}
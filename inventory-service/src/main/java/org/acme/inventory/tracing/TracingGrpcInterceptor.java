@@ -0,0 +1,53 @@
+package org.acme.inventory.tracing;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.quarkus.grpc.GlobalInterceptor;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Records a span for every gRPC call, continuing the trace named in the
+ * {@code x-trace-id} metadata or starting a new one
+ */
+@ApplicationScoped
+@GlobalInterceptor
+public class TracingGrpcInterceptor implements ServerInterceptor {
+
+    static final Metadata.Key<String> TRACE_ID = Metadata.Key.of(
+        Tracing.HEADER.toLowerCase(), Metadata.ASCII_STRING_MARSHALLER);
+
+    private final SpanBuffer buffer;
+
+    public TracingGrpcInterceptor(SpanBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+        ServerCall<ReqT, RespT> call, Metadata headers,
+        ServerCallHandler<ReqT, RespT> next) {
+        String header = headers.get(TRACE_ID);
+        String traceId = header == null ? Tracing.newId() : header;
+        String name = call.getMethodDescriptor().getFullMethodName();
+        long startMicros = ChronoUnit.MICROS.between(Instant.EPOCH,
+            Instant.now());
+        long started = System.nanoTime();
+        return next.startCall(
+            new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+                @Override
+                public void close(Status status, Metadata trailers) {
+                    buffer.record(new Span(traceId, Tracing.newId(), name,
+                        startMicros, (System.nanoTime() - started) / 1000,
+                        status.getCode().value()));
+                    super.close(status, trailers);
+                }
+            }, headers);
+    }
+}
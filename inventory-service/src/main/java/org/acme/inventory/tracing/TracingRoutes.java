@@ -0,0 +1,60 @@
+package org.acme.inventory.tracing;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Singleton;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Records a span for every HTTP request, continuing the trace named in
+ * the {@value Tracing#HEADER} header or starting a new one, and serves
+ * the recent spans on {@code GET /debug/spans}
+ * <p>
+ * The services share no module, each has a copy of this class. Keep the
+ * copies the same, apart from whether the trace id is handed to
+ * {@link Tracing}, which only services calling others need.
+ */
+@Singleton
+public class TracingRoutes {
+
+    private final SpanBuffer buffer;
+
+    public TracingRoutes(SpanBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    void install(@Observes Router router) {
+        router.get("/debug/spans").order(-200).handler(this::spans);
+        router.route().order(-100).handler(this::trace);
+    }
+
+    private void trace(RoutingContext context) {
+        String header = context.request().getHeader(Tracing.HEADER);
+        String traceId = header == null ? Tracing.newId() : header;
+        String name = context.request().method() + " " +
+            context.request().path();
+        long startMicros = ChronoUnit.MICROS.between(Instant.EPOCH,
+            Instant.now());
+        long started = System.nanoTime();
+        context.response().putHeader(Tracing.HEADER, traceId);
+        context.addBodyEndHandler(ignored -> buffer.record(new Span(traceId,
+            Tracing.newId(), name, startMicros,
+            (System.nanoTime() - started) / 1000,
+            context.response().getStatusCode())));
+        context.next();
+    }
+
+    private void spans(RoutingContext context) {
+        JsonArray spans = new JsonArray();
+        for (Span span : buffer.recent()) {
+            spans.add(span.toJson());
+        }
+        context.response()
+            .putHeader("Content-Type", "application/json")
+            .end(spans.encode());
+    }
+}
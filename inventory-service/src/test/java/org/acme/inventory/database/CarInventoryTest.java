@@ -0,0 +1,246 @@
+package org.acme.inventory.database;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.logging.Log;
+import org.acme.inventory.model.Car;
+import org.acme.inventory.model.CarFilter;
+import org.acme.inventory.model.InventoryChange;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class CarInventoryTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testCarsAndIdsSurviveRestart() {
+        // the two example cars and the first added one go into the
+        // snapshot, the rest into the log
+        CarInventory inventory = open(3);
+        for (int i = 3; i <= 5; i++) {
+            Assertions.assertEquals(i, inventory.add(car("CAR" + i)).id);
+        }
+        inventory.remove("CAR5");
+        inventory.close();
+
+        inventory = open(3);
+        Assertions.assertEquals(4, inventory.size());
+        Assertions.assertEquals(6, inventory.getVersion());
+        Assertions.assertEquals(4L, inventory.findByPlate("CAR4")
+            .orElseThrow().id);
+        Assertions.assertTrue(inventory.findByPlate("CAR5").isEmpty());
+        Assertions.assertEquals(List.of("CAR3", "CAR4"), plates(
+            inventory.find(filter("CAR"), 10, null)));
+        Assertions.assertEquals(List.of("CAR3", "CAR4"), plates(
+            inventory.find(manufacturer("Skoda"), 10, null)));
+        // the id of the removed car is not handed out again
+        Assertions.assertEquals(6L, inventory.add(car("CAR6")).id);
+        inventory.close();
+    }
+
+    @Test
+    public void testCarsThatCannotBeWrittenAreNotKept() {
+        CarInventory inventory = open(1000);
+        inventory.close();
+
+        Assertions.assertThrows(IllegalStateException.class,
+            () -> inventory.add(car("CAR3")));
+        Assertions.assertTrue(inventory.findByPlate("CAR3").isEmpty());
+        Assertions.assertEquals(2, inventory.size());
+        Assertions.assertEquals(2, inventory.getVersion());
+        Assertions.assertEquals(List.of(), plates(
+            inventory.find(manufacturer("Skoda"), 10, null)));
+
+        Assertions.assertThrows(IllegalStateException.class,
+            () -> inventory.remove("ABC123"));
+        Assertions.assertTrue(inventory.findByPlate("ABC123").isPresent());
+        Assertions.assertEquals(List.of("ABC123"), plates(
+            inventory.find(manufacturer("Mazda"), 10, null)));
+    }
+
+    @Test
+    public void testBatchLookupsKeepTheRequestedOrder() {
+        CarInventory inventory = open(1000);
+        inventory.addAll(List.of(car("CAR3"), car("CAR4"), car("CAR5")));
+
+        Assertions.assertEquals(List.of("CAR5", "ABC123", "CAR3"), plates(
+            inventory.findByIds(Arrays.asList(5L, 42L, 1L, null, 3L))));
+        Assertions.assertEquals(List.of("CAR4", "XYZ987", "CAR3"), plates(
+            inventory.findByPlates(Arrays.asList("CAR4", "UNKNOWN",
+                "XYZ987", null, "CAR3"))));
+        inventory.close();
+    }
+
+    @Test
+    public void testPlatePrefixIsPagedInPlateOrder() {
+        CarInventory inventory = open(1000);
+        inventory.addAll(List.of(car("CAR5"), car("CAR3"), car("BUS1"),
+            car("CAR4")));
+
+        List<Car> first = inventory.find(filter("CAR"), 2, null);
+        Assertions.assertEquals(List.of("CAR3", "CAR4"), plates(first));
+        Long cursor = first.get(1).id;
+        Assertions.assertEquals(List.of("CAR5"), plates(
+            inventory.find(filter("CAR"), 2, cursor)));
+
+        inventory.remove("CAR4");
+        Assertions.assertThrows(IllegalArgumentException.class,
+            () -> inventory.find(filter("CAR"), 2, cursor));
+        inventory.close();
+    }
+
+    @Test
+    public void testRemoveAllIsWrittenAsOneBatch() {
+        List<Integer> batches = new ArrayList<>();
+        CarInventory inventory = open(1000, new ChangeLog(100) {
+            @Override
+            synchronized List<InventoryChange> append(
+                InventoryChange.Type type, List<Car> cars) {
+                batches.add(cars.size());
+                return super.append(type, cars);
+            }
+        });
+        inventory.addAll(List.of(car("CAR3"), car("CAR4"), car("CAR5")));
+        batches.clear();
+
+        Assertions.assertEquals(List.of("CAR5", "ABC123", "CAR3"), plates(
+            inventory.removeAll(List.of("CAR5", "UNKNOWN", "ABC123",
+                "CAR3"))));
+        Assertions.assertEquals(List.of(3), batches);
+        Assertions.assertEquals(List.of(), inventory.removeAll(
+            List.of("UNKNOWN")));
+        Assertions.assertEquals(List.of(3), batches);
+        inventory.close();
+
+        inventory = open(1000);
+        Assertions.assertEquals(List.of("XYZ987", "CAR4"),
+            plates(inventory.findAll()));
+        Assertions.assertEquals(8, inventory.getVersion());
+        inventory.close();
+    }
+
+    @Test
+    public void testAddsRacingCloseNeverHang() throws Exception {
+        CarInventory inventory = open(100_000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; ; i++) {
+                    try {
+                        inventory.add(car("CAR" + thread + "-" + i));
+                    } catch (RuntimeException e) {
+                        return;
+                    }
+                }
+            }));
+        }
+        Thread.sleep(50);
+        inventory.close();
+        for (Future<?> future : futures) {
+            // every add either made it before close or failed
+            future.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        int added = inventory.size();
+        Assertions.assertEquals(added, open(100_000).size());
+    }
+
+    /**
+     * A benchmark, run with {@code mvn test -Pbenchmark}: startup of a
+     * million-car fleet recovered from a snapshot
+     */
+    @Test
+    @Tag("benchmark")
+    public void testStartupOfAMillionCars() throws Exception {
+        int carCount = 1_000_000;
+        // the two example cars and the fleet fill exactly one snapshot
+        CarInventory inventory = open(carCount + 2);
+        for (int i = 0; i < carCount; i += 10_000) {
+            List<Car> cars = new ArrayList<>(10_000);
+            for (int j = i; j < i + 10_000; j++) {
+                Car car = car(String.format("P%07d", j));
+                car.manufacturer = "Manufacturer " + j % 50;
+                car.model = "Model " + j % 500;
+                cars.add(car);
+            }
+            inventory.addAll(cars);
+        }
+        inventory.close();
+
+        long[] ready = new long[5];
+        long[] indexed = new long[ready.length];
+        for (int round = 0; round < ready.length; round++) {
+            // start each round on a heap like a fresh process's
+            inventory = null;
+            System.gc();
+            long start = System.nanoTime();
+            inventory = open(carCount + 2);
+            ready[round] = (System.nanoTime() - start) / 1_000_000;
+            while (!inventory.indexed()) {
+                Thread.sleep(1);
+            }
+            indexed[round] = (System.nanoTime() - start) / 1_000_000;
+            Assertions.assertEquals(carCount + 2, inventory.size());
+            inventory.close();
+        }
+        Arrays.sort(ready);
+        Arrays.sort(indexed);
+        Log.infof("Startup of %d cars: ready after %d ms, indexed after %d "
+                + "ms (medians), max heap %d MB", carCount,
+            ready[ready.length / 2], indexed[indexed.length / 2],
+            Runtime.getRuntime().maxMemory() >> 20);
+    }
+
+    private CarInventory open(int snapshotEvery) {
+        return open(snapshotEvery, new ChangeLog(100));
+    }
+
+    private CarInventory open(int snapshotEvery, ChangeLog changes) {
+        CarInventory inventory = new CarInventory();
+        inventory.changes = changes;
+        inventory.registry = new SimpleMeterRegistry();
+        inventory.directory = directory;
+        inventory.snapshotEvery = snapshotEvery;
+        inventory.initialize();
+        return inventory;
+    }
+
+    private static List<String> plates(List<Car> cars) {
+        return cars.stream().map(car -> car.licensePlateNumber).toList();
+    }
+
+    private static CarFilter filter(String licensePlatePrefix) {
+        CarFilter filter = new CarFilter();
+        filter.licensePlatePrefix = licensePlatePrefix;
+        return filter;
+    }
+
+    private static CarFilter manufacturer(String manufacturer) {
+        CarFilter filter = new CarFilter();
+        filter.manufacturer = manufacturer;
+        return filter;
+    }
+
+    private static Car car(String licensePlateNumber) {
+        Car car = new Car();
+        car.licensePlateNumber = licensePlateNumber;
+        car.manufacturer = "Skoda";
+        car.model = "Octavia";
+        return car;
+    }
+}
@@ -0,0 +1,331 @@
+package org.acme.inventory.database;
+
+import org.acme.inventory.model.Car;
+import org.acme.inventory.model.InventoryChange;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+public class CarJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testSnapshotHoldsTheWrittenFleet() {
+        Car first = car(1, "AAA111");
+        Car second = car(2, "BBB222");
+        Car third = car(3, "CCC333");
+        CarJournal journal = started(3);
+        journal.append(List.of(
+            change(InventoryChange.Type.REGISTERED, 1, first),
+            change(InventoryChange.Type.REGISTERED, 2, second),
+            change(InventoryChange.Type.REMOVED, 3, first))).join();
+        journal.append(List.of(
+            change(InventoryChange.Type.REGISTERED, 4, third))).join();
+        journal.close();
+
+        journal = new CarJournal(directory, 3);
+        CarJournal.Snapshot snapshot = journal.recover();
+        Assertions.assertEquals(List.of(2L),
+            snapshot.cars.stream().map(car -> car.id).toList());
+        Assertions.assertEquals(3, snapshot.version);
+        Assertions.assertEquals(List.of("CCC333"), journal.recoveredChanges()
+            .stream().map(change -> change.car.licensePlateNumber).toList());
+        Assertions.assertEquals(4, journal.version());
+        Assertions.assertEquals(3, journal.lastId());
+        journal.close();
+    }
+
+    @Test
+    public void testFailedBatchesAreCutOffTheLog() {
+        FailingJournal journal = new FailingJournal(directory, 2);
+        journal.recover();
+        journal.start();
+        append(journal, 1);
+        // torn in the middle of the record
+        journal.channel.failWriteAfter = 10;
+        Assertions.assertThrows(CompletionException.class,
+            () -> append(journal, 2));
+        // on disk, but not known to be
+        journal.channel.failForce = true;
+        Assertions.assertThrows(CompletionException.class,
+            () -> append(journal, 3));
+        // taken after the second written change
+        append(journal, 4);
+        append(journal, 5);
+        journal.close();
+
+        CarJournal recovered = new CarJournal(directory, 2);
+        CarJournal.Snapshot snapshot = recovered.recover();
+        Assertions.assertEquals(List.of(1L, 4L),
+            snapshot.cars.stream().map(car -> car.id).toList());
+        Assertions.assertEquals(List.of(5L), recovered.recoveredChanges()
+            .stream().map(change -> change.version).toList());
+        Assertions.assertEquals(5, recovered.version());
+        recovered.close();
+    }
+
+    @Test
+    public void testJournalFailsIfTheLogCannotBeCut() {
+        FailingJournal journal = new FailingJournal(directory, 1000);
+        journal.recover();
+        journal.start();
+        journal.channel.failForce = true;
+        journal.channel.failTruncate = true;
+        Assertions.assertThrows(CompletionException.class,
+            () -> append(journal, 1));
+        Assertions.assertThrows(IllegalStateException.class,
+            () -> append(journal, 2));
+        journal.close();
+    }
+
+    @Test
+    public void testTornAndCorruptTailsAreDropped() throws IOException {
+        CarJournal journal = started(1000);
+        for (int i = 1; i <= 3; i++) {
+            journal.append(List.of(change(InventoryChange.Type.REGISTERED,
+                i, car(i, "CAR" + i)))).join();
+        }
+        journal.close();
+        Path log = directory.resolve("cars.log");
+        try (FileChannel channel = FileChannel.open(log,
+            StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // flip the last byte of the last record
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            last.put(0, (byte) ~last.get(0)).rewind();
+            channel.write(last, channel.size() - 1);
+        }
+
+        journal = new CarJournal(directory, 1000);
+        journal.recover();
+        Assertions.assertEquals(2, journal.recoveredChanges().size());
+        Assertions.assertEquals(2, journal.version());
+        Assertions.assertEquals(2, journal.lastId());
+        journal.close();
+
+        // the corrupt record was cut off, so new records follow the intact
+        // ones
+        journal = started(1000);
+        journal.append(List.of(change(InventoryChange.Type.REGISTERED, 3,
+            car(3, "CAR3")))).join();
+        journal.close();
+        try (FileChannel channel = FileChannel.open(log,
+            StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        journal = new CarJournal(directory, 1000);
+        journal.recover();
+        Assertions.assertEquals(2, journal.recoveredChanges().size());
+        Assertions.assertEquals("CAR2",
+            journal.recoveredChanges().get(1).car.licensePlateNumber);
+        journal.close();
+    }
+
+    @Test
+    public void testCorruptSnapshotIsRejected() throws IOException {
+        Car car = car(1, "AAA111");
+        CarJournal journal = started(1);
+        journal.append(List.of(
+            change(InventoryChange.Type.REGISTERED, 1, car))).join();
+        journal.close();
+        try (FileChannel channel = FileChannel.open(
+            directory.resolve("cars.snapshot"), StandardOpenOption.WRITE)) {
+            // the first byte of the version
+            channel.write(ByteBuffer.wrap(new byte[] {1}), 4);
+        }
+
+        Assertions.assertThrows(IllegalStateException.class,
+            () -> new CarJournal(directory, 1).recover());
+    }
+
+    @Test
+    public void testAppendAfterCloseFails() {
+        CarJournal journal = started(1000);
+        journal.close();
+
+        Assertions.assertThrows(IllegalStateException.class,
+            () -> journal.append(List.of(change(
+                InventoryChange.Type.REGISTERED, 1, car(1, "AAA111")))));
+    }
+
+    private CarJournal started(int snapshotEvery) {
+        CarJournal journal = new CarJournal(directory, snapshotEvery);
+        journal.recover();
+        journal.start();
+        return journal;
+    }
+
+    private static void append(CarJournal journal, long id) {
+        journal.append(List.of(change(InventoryChange.Type.REGISTERED, id,
+            car(id, "CAR" + id)))).join();
+    }
+
+    private static InventoryChange change(InventoryChange.Type type,
+                                          long version, Car car) {
+        return new InventoryChange(type, version, car);
+    }
+
+    private static Car car(long id, String licensePlateNumber) {
+        Car car = new Car();
+        car.id = id;
+        car.licensePlateNumber = licensePlateNumber;
+        car.manufacturer = "Mazda";
+        car.model = id % 2 == 0 ? null : "6";
+        return car;
+    }
+
+    /**
+     * Writes its log through a channel that fails when told to
+     */
+    private static final class FailingJournal extends CarJournal {
+
+        FailingChannel channel;
+
+        FailingJournal(Path directory, int snapshotEvery) {
+            super(directory, snapshotEvery);
+        }
+
+        @Override
+        FileChannel openLog(Path file) throws IOException {
+            channel = new FailingChannel(super.openLog(file));
+            return channel;
+        }
+    }
+
+    private static final class FailingChannel extends FileChannel {
+
+        private final FileChannel delegate;
+        volatile int failWriteAfter = -1;
+        volatile boolean failForce;
+        volatile boolean failTruncate;
+
+        FailingChannel(FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            if (failWriteAfter < 0) {
+                return delegate.write(source);
+            }
+            source.limit(source.position() + failWriteAfter);
+            failWriteAfter = -1;
+            delegate.write(source);
+            throw new IOException("Disk full");
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failForce) {
+                failForce = false;
+                throw new IOException("Cannot sync");
+            }
+            delegate.force(metaData);
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            if (failTruncate) {
+                throw new IOException("Cannot truncate");
+            }
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            return delegate.read(destination);
+        }
+
+        @Override
+        public long read(ByteBuffer[] destinations, int offset, int length)
+            throws IOException {
+            return delegate.read(destinations, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length)
+            throws IOException {
+            return delegate.write(sources, offset, length);
+        }
+
+        @Override
+        public long transferTo(long position, long count,
+                               WritableByteChannel target)
+            throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel source, long position,
+                                 long count) throws IOException {
+            return delegate.transferFrom(source, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer destination, long position)
+            throws IOException {
+            return delegate.read(destination, position);
+        }
+
+        @Override
+        public int write(ByteBuffer source, long position)
+            throws IOException {
+            return delegate.write(source, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size)
+            throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared)
+            throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared)
+            throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+}
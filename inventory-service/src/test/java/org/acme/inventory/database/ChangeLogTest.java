@@ -0,0 +1,113 @@
+package org.acme.inventory.database;
+
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import org.acme.inventory.model.Car;
+import org.acme.inventory.model.InventoryChange;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+public class ChangeLogTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Test
+    public void testFollowersResumeWithinTheWindow() {
+        ChangeLog log = new ChangeLog(4);
+        for (int i = 1; i <= 5; i++) {
+            publish(log, "CAR" + i);
+        }
+
+        AssertSubscriber<InventoryChange> follower =
+            log.follow(3L).subscribe().withSubscriber(
+                AssertSubscriber.create(Long.MAX_VALUE));
+        publish(log, "CAR6");
+        Assertions.assertEquals(List.of(4L, 5L, 6L),
+            versions(follower.awaitItems(3, TIMEOUT)));
+        follower.cancel();
+    }
+
+    @Test
+    public void testFollowingOutsideTheWindowIsOutOfRange() {
+        ChangeLog log = new ChangeLog(4);
+        log.continueAfter(2);
+        publish(log, "CAR3");
+        // from before this process started, and not reached yet
+        assertOutOfRange(log, 1);
+        assertOutOfRange(log, 4);
+
+        for (int i = 4; i <= 8; i++) {
+            publish(log, "CAR" + i);
+        }
+        // no longer kept
+        assertOutOfRange(log, 3);
+    }
+
+    @Test
+    public void testOnlyWrittenChangesArePassedOn() {
+        ChangeLog log = new ChangeLog(4);
+        AssertSubscriber<InventoryChange> follower =
+            log.follow(null).subscribe().withSubscriber(
+                AssertSubscriber.create(Long.MAX_VALUE));
+
+        List<InventoryChange> lost = append(log, "CAR1");
+        List<InventoryChange> written = append(log, "CAR2");
+        Assertions.assertEquals(0, log.version());
+        Assertions.assertEquals(List.of(), follower.getItems());
+        log.discard(lost);
+        Assertions.assertEquals(0, log.version());
+        log.publish(written);
+
+        Assertions.assertEquals(List.of(2L),
+            versions(follower.awaitItems(1, TIMEOUT)));
+        Assertions.assertEquals(2, log.version());
+        // resuming skips the change that was not written
+        Assertions.assertEquals(List.of(2L), versions(log.follow(0L)
+            .subscribe().withSubscriber(AssertSubscriber.create(1))
+            .awaitItems(1, TIMEOUT)));
+        follower.cancel();
+    }
+
+    @Test
+    public void testSlowFollowerIsDisconnected() {
+        ChangeLog log = new ChangeLog(4);
+        AssertSubscriber<InventoryChange> follower =
+            log.follow(null).subscribe().withSubscriber(
+                AssertSubscriber.create(0));
+
+        // more than the window, and than the hand-off to the executor
+        // takes ahead of the follower
+        for (int i = 1; i <= 1000; i++) {
+            publish(log, "CAR" + i);
+        }
+        follower.request(Long.MAX_VALUE);
+        follower.awaitFailure(TIMEOUT)
+            .assertFailedWith(ChangesUnavailableException.class);
+    }
+
+    private static void assertOutOfRange(ChangeLog log, long after) {
+        log.follow(after).subscribe().withSubscriber(
+                AssertSubscriber.create(Long.MAX_VALUE))
+            .awaitFailure(TIMEOUT)
+            .assertFailedWith(ChangesUnavailableException.class);
+    }
+
+    private static void publish(ChangeLog log, String licensePlateNumber) {
+        log.publish(append(log, licensePlateNumber));
+    }
+
+    private static List<InventoryChange> append(ChangeLog log,
+                                                String licensePlateNumber) {
+        Car car = new Car();
+        car.licensePlateNumber = licensePlateNumber;
+        return log.append(InventoryChange.Type.REGISTERED, List.of(car));
+    }
+
+    private static List<Long> versions(AssertSubscriber<InventoryChange>
+                                           follower) {
+        return follower.getItems().stream().map(change -> change.version)
+            .toList();
+    }
+}
@@ -0,0 +1,228 @@
+package org.acme.inventory.grpc;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import io.smallrye.mutiny.operators.multi.processors.UnicastProcessor;
+import org.acme.inventory.database.CarInventory;
+import org.acme.inventory.database.ChangeLog;
+import org.acme.inventory.database.LicensePlateTakenException;
+import org.acme.inventory.model.Car;
+import org.acme.inventory.model.CarChangeResponse;
+import org.acme.inventory.model.CarResponse;
+import org.acme.inventory.model.ChangesRequest;
+import org.acme.inventory.model.InsertCarRequest;
+import org.acme.inventory.model.InventoryChange;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+public class GrpcInventoryServiceTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final RecordingInventory inventory = new RecordingInventory();
+
+    @Test
+    public void testCarsAreCommittedInBatches() {
+        GrpcInventoryService service = service(500, Duration.ofMinutes(1));
+
+        AssertSubscriber<CarResponse> responses = service.add(
+                Multi.createFrom().range(0, 1200).map(i -> request("CAR" + i)))
+            .subscribe().withSubscriber(
+                AssertSubscriber.create(Long.MAX_VALUE))
+            .awaitCompletion(TIMEOUT);
+
+        Assertions.assertEquals(List.of(500, 500, 200), inventory.batches);
+        Assertions.assertEquals(LongStream.rangeClosed(1, 1200).boxed()
+            .toList(), responses.getItems().stream().map(CarResponse::getId)
+            .toList());
+    }
+
+    @Test
+    public void testWindowCommitsWhatArrived() {
+        GrpcInventoryService service = service(500, Duration.ofMillis(200));
+        UnicastProcessor<InsertCarRequest> requests =
+            UnicastProcessor.create();
+
+        AssertSubscriber<CarResponse> responses = service.add(requests)
+            .subscribe().withSubscriber(
+                AssertSubscriber.create(Long.MAX_VALUE));
+        requests.onNext(request("CAR1"));
+        requests.onNext(request("CAR2"));
+        // the stream is still open, the window commits the two cars
+        responses.awaitItems(2, TIMEOUT);
+        requests.onNext(request("CAR3"));
+        requests.onComplete();
+        responses.awaitCompletion(TIMEOUT);
+
+        Assertions.assertEquals(List.of(2, 1), inventory.batches);
+    }
+
+    @Test
+    public void testTakenPlateFailsAfterTheCarsBeforeIt() {
+        GrpcInventoryService service = service(500, Duration.ofMinutes(1));
+        inventory.add(car("TAKEN"));
+        inventory.batches.clear();
+
+        AssertSubscriber<CarResponse> responses = service.add(
+                Multi.createFrom().items("CAR1", "CAR2", "TAKEN", "CAR3")
+                    .map(GrpcInventoryServiceTest::request))
+            .subscribe().withSubscriber(
+                AssertSubscriber.create(Long.MAX_VALUE))
+            .awaitFailure(TIMEOUT);
+
+        Assertions.assertEquals(List.of("CAR1", "CAR2"), responses.getItems()
+            .stream().map(CarResponse::getLicensePlateNumber).toList());
+        StatusRuntimeException failure =
+            (StatusRuntimeException) responses.getFailure();
+        Assertions.assertEquals(Status.Code.ALREADY_EXISTS,
+            failure.getStatus().getCode());
+        Assertions.assertTrue(failure.getStatus().getDescription()
+            .contains("TAKEN"));
+        Assertions.assertEquals(Set.of("TAKEN", "CAR1", "CAR2"),
+            inventory.plates);
+    }
+
+    @Test
+    public void testSlowCommitsHoldTheSenderBack() {
+        GrpcInventoryService service = service(100, Duration.ofMinutes(1));
+        inventory.commitMillis = 20;
+        AtomicInteger sent = new AtomicInteger();
+        inventory.sent = sent;
+
+        AssertSubscriber<CarResponse> responses = service.add(
+                Multi.createFrom().range(0, 1000)
+                    .map(i -> request("CAR" + i))
+                    .onItem().invoke(sent::incrementAndGet))
+            .subscribe().withSubscriber(
+                AssertSubscriber.create(Long.MAX_VALUE))
+            .awaitCompletion(TIMEOUT);
+
+        Assertions.assertEquals(1000, responses.getItems().size());
+        // the batch being committed and at most the next one
+        Assertions.assertTrue(inventory.mostAhead <= 200,
+            "Sent " + inventory.mostAhead + " cars ahead of the commits");
+    }
+
+    @Test
+    public void testClientNotReadingResponsesHoldsTheSenderBack()
+        throws InterruptedException {
+        GrpcInventoryService service = service(10, Duration.ofMillis(20));
+        AtomicInteger sent = new AtomicInteger();
+
+        AssertSubscriber<CarResponse> responses = service.add(
+                Multi.createFrom().range(0, 100)
+                    .map(i -> request("CAR" + i))
+                    .onItem().invoke(sent::incrementAndGet))
+            .subscribe().withSubscriber(AssertSubscriber.create(1));
+        responses.awaitItems(1, TIMEOUT);
+        Thread.sleep(200);
+        Assertions.assertTrue(sent.get() <= 20,
+            "Sent " + sent.get() + " cars without reading the responses");
+        Assertions.assertNull(responses.getFailure());
+
+        responses.request(Long.MAX_VALUE);
+        responses.awaitCompletion(TIMEOUT);
+        Assertions.assertEquals(100, responses.getItems().size());
+    }
+
+    @Test
+    public void testCarsWithoutManufacturerOrModelAreStreamed() {
+        GrpcInventoryService service = service(500, Duration.ofMinutes(1));
+        Car car = new Car();
+        car.id = 1L;
+        car.licensePlateNumber = "CAR1";
+        service.changes = new ChangeLog(100) {
+            @Override
+            public Multi<InventoryChange> follow(Long after) {
+                return Multi.createFrom().item(new InventoryChange(
+                    InventoryChange.Type.REGISTERED, 1, car));
+            }
+        };
+
+        CarChangeResponse change = service.changes(ChangesRequest
+                .newBuilder().setAfterVersion(0).build())
+            .subscribe().withSubscriber(AssertSubscriber.create(1))
+            .awaitItems(1, TIMEOUT).getItems().get(0);
+        Assertions.assertEquals("CAR1", change.getCar()
+            .getLicensePlateNumber());
+        Assertions.assertEquals("", change.getCar().getManufacturer());
+        Assertions.assertEquals("", change.getCar().getModel());
+    }
+
+    private GrpcInventoryService service(int batchSize, Duration window) {
+        GrpcInventoryService service = new GrpcInventoryService();
+        service.inventory = inventory;
+        service.registry = new SimpleMeterRegistry();
+        service.batchSize = batchSize;
+        service.window = window;
+        return service;
+    }
+
+    private static InsertCarRequest request(String licensePlateNumber) {
+        return InsertCarRequest.newBuilder()
+            .setLicensePlateNumber(licensePlateNumber)
+            .setManufacturer("Skoda")
+            .setModel("Octavia")
+            .build();
+    }
+
+    private static Car car(String licensePlateNumber) {
+        Car car = new Car();
+        car.licensePlateNumber = licensePlateNumber;
+        car.manufacturer = "Skoda";
+        car.model = "Octavia";
+        return car;
+    }
+
+    /**
+     * Stores the license plates only, and the size of every committed
+     * batch. Commits take {@code commitMillis}, and record how many cars
+     * were {@code sent} ahead of them.
+     */
+    private static final class RecordingInventory extends CarInventory {
+
+        final List<Integer> batches = new CopyOnWriteArrayList<>();
+        final Set<String> plates = new HashSet<>();
+        long ids;
+        long commitMillis;
+        AtomicInteger sent;
+        int mostAhead;
+
+        @Override
+        public synchronized List<Car> addAll(List<Car> cars) {
+            if (sent != null) {
+                mostAhead = Math.max(mostAhead, sent.get() - plates.size());
+            }
+            try {
+                Thread.sleep(commitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Set<String> added = new HashSet<>();
+            for (Car car : cars) {
+                if (plates.contains(car.licensePlateNumber)
+                    || !added.add(car.licensePlateNumber)) {
+                    throw new LicensePlateTakenException(
+                        car.licensePlateNumber);
+                }
+            }
+            for (Car car : cars) {
+                car.id = ++ids;
+            }
+            plates.addAll(added);
+            batches.add(cars.size());
+            return cars;
+        }
+    }
+}
@@ -1,27 +1,116 @@
 package org.acme.rental;
 
+import io.micrometer.core.annotation.Timed;
 import io.quarkus.logging.Log;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
+import org.acme.rental.tracing.Span;
+import org.acme.rental.tracing.SpanBuffer;
+import org.acme.rental.tracing.Tracing;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 @Path("/rental")
+@Timed(value = "endpoint.latency", histogram = true)
 public class RentalResource {
 
     private final AtomicLong id = new AtomicLong(0);
+    /**
+     * Rentals by the reservation they started, so a start delivered again
+     * after a lost response gets the same rental. A start is only sent
+     * again within the sender's retry backoff, so rentals are dropped,
+     * oldest first, once they are older than {@code rental.started.ttl}
+     * or more than {@code rental.started.max} are kept.
+     */
+    private final Map<Long, Rental> byReservation = new ConcurrentHashMap<>();
+    private final Queue<Started> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger kept = new AtomicInteger();
+    private final int maxKept;
+    private final long ttlNanos;
+    private final SpanBuffer spans;
+
+    public RentalResource(
+        SpanBuffer spans,
+        @ConfigProperty(name = "rental.started.max",
+            defaultValue = "100000") int maxKept,
+        @ConfigProperty(name = "rental.started.ttl",
+            defaultValue = "24h") Duration ttl) {
+        this.spans = spans;
+        this.maxKept = maxKept;
+        this.ttlNanos = ttl.toNanos();
+    }
 
     @Path("/start/{userId}/{reservationId}")
     @POST
     @Produces(MediaType.APPLICATION_JSON)
     public Rental start(String userId,
                         Long reservationId) {
-        Log.infof("Starting rental for %s with reservation %s",
-        userId, reservationId);
-        return new Rental(id.incrementAndGet(), userId, reservationId,
-            LocalDate.now());
+        // a reservation is started once, even if its start is delivered
+        // again after a lost response
+        Rental rental = byReservation.computeIfAbsent(reservationId, key -> {
+            Log.infof("Starting rental for %s with reservation %s",
+            userId, reservationId);
+            Rental started = new Rental(id.incrementAndGet(), userId,
+                reservationId, LocalDate.now());
+            order.add(new Started(started, System.nanoTime()));
+            kept.incrementAndGet();
+            return started;
+        });
+        evict();
+        return rental;
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        Started oldest;
+        while ((oldest = order.peek()) != null &&
+            (kept.get() > maxKept || now - oldest.at > ttlNanos)) {
+            oldest = order.poll();
+            if (oldest != null) {
+                kept.decrementAndGet();
+                byReservation.remove(oldest.rental.getReservationId(),
+                    oldest.rental);
+            }
+        }
+    }
+
+    @Path("/start")
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<Rental> startAll(List<RentalStart> starts) {
+        List<Rental> rentals = new ArrayList<>(starts.size());
+        for (RentalStart start : starts) {
+            long startMicros = ChronoUnit.MICROS.between(Instant.EPOCH,
+                Instant.now());
+            long started = System.nanoTime();
+            rentals.add(start(start.userId, start.reservationId));
+            // the batch is traced as a request of its own, each start also
+            // shows up in the trace of the booking it belongs to
+            if (start.traceId != null) {
+                spans.record(new Span(start.traceId, Tracing.newId(),
+                    "start rental " + start.reservationId, startMicros,
+                    (System.nanoTime() - started) / 1000, 200));
+            }
+        }
+        return rentals;
+    }
+
+    private record Started(Rental rental, long at) {
     }
 }
@@ -0,0 +1,11 @@
+package org.acme.rental;
+
+public class RentalStart {
+
+    public String userId;
+    public Long reservationId;
+    /**
+     * Trace of the booking the start belongs to, may be null
+     */
+    public String traceId;
+}
@@ -0,0 +1,18 @@
+package org.acme.rental.tracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Trace ids travel between services in the {@value #HEADER} header
+ */
+public final class Tracing {
+
+    public static final String HEADER = "X-Trace-Id";
+
+    private Tracing() {
+    }
+
+    public static String newId() {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
+}
@@ -0,0 +1,345 @@
+package org.acme.reservation.availability;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.acme.reservation.inventory.Car;
+import org.acme.reservation.inventory.InventoryChange;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationsRepository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Free cars for the date ranges that are actually asked for, kept as
+ * windows relative to today, e.g. tomorrow and the six days after it. The
+ * first lookup of a range adds a window for it, up to
+ * {@link #MAX_WINDOWS}. Each window keeps its free cars and is updated in
+ * place, a saved reservation takes its car out of every window it overlaps
+ * and inventory changes add or drop single cars, so answering one of these
+ * ranges costs nothing. Windows are built on a worker thread, when they
+ * are added and when the day changes, and are not used until then.
+ * <p>
+ * Reservations are applied under the shared side of a read-write lock,
+ * rebuilds and inventory changes under the exclusive one, so a reservation
+ * saved during a rebuild is never lost. Inventory changes are fired on the
+ * event loop, so they are applied on a worker thread too, in order.
+ */
+@ApplicationScoped
+public class FreeCarsView {
+
+    /**
+     * The most windows kept, each holds a map of the free cars
+     */
+    static final int MAX_WINDOWS = 8;
+
+    private final ReservationsRepository reservations;
+    private final Counter mismatches;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Car> fleet = new ConcurrentHashMap<>();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final Set<Range> ranges = ConcurrentHashMap.newKeySet();
+    private final Queue<InventoryChange> changes =
+        new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean applying = new AtomicBoolean();
+
+    private volatile boolean fleetKnown;
+    private volatile LocalDate builtFor;
+    private volatile Map<Range, Window> windows = Map.of();
+
+    public FreeCarsView(ReservationsRepository reservations,
+                        MeterRegistry registry) {
+        this.reservations = reservations;
+        this.mismatches = registry.counter("availability.view.mismatches");
+        // what users-service offers by default
+        ranges.add(new Range(1, 7));
+    }
+
+    /**
+     * @return the free cars if the range is one of the maintained windows,
+     * empty if it has to be computed, also while the windows are rebuilt
+     */
+    public Optional<Collection<Car>> lookup(LocalDate startDate,
+                                            LocalDate endDate) {
+        if (!fleetKnown || startDate == null || endDate == null) {
+            return Optional.empty();
+        }
+        LocalDate today = LocalDate.now();
+        Range range = Range.of(today, startDate, endDate);
+        if (!today.equals(builtFor)) {
+            // lookups run on the event loop, which must not scan the
+            // reservations
+            rebuildInBackground(today);
+            return Optional.empty();
+        }
+        Window window = range == null ? null : windows.get(range);
+        if (window != null) {
+            return Optional.of(
+                Collections.unmodifiableCollection(window.free.values()));
+        }
+        // also when a rebuild running already missed the range
+        if (range != null && (ranges.contains(range) ||
+            ranges.size() < MAX_WINDOWS && ranges.add(range))) {
+            rebuildInBackground(today);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Take the car of a newly saved reservation out of every window
+     */
+    public void reserved(Reservation reservation) {
+        lock.readLock().lock();
+        try {
+            for (Window window : windows.values()) {
+                if (reservation.isReserved(window.startDate, window.endDate)) {
+                    window.free.remove(reservation.carId);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queue the change, it is applied on a worker thread
+     */
+    public void inventoryChanged(@Observes InventoryChange change) {
+        changes.add(change);
+        applyInBackground();
+    }
+
+    /**
+     * Apply the queued changes one at a time, so they take effect in the
+     * order they were fired
+     */
+    private void applyInBackground() {
+        if (applying.compareAndSet(false, true)) {
+            Infrastructure.getDefaultWorkerPool().execute(() -> {
+                try {
+                    for (InventoryChange change = changes.poll();
+                         change != null; change = changes.poll()) {
+                        apply(change);
+                    }
+                } finally {
+                    applying.set(false);
+                }
+                // queued after the last poll
+                if (!changes.isEmpty()) {
+                    applyInBackground();
+                }
+            });
+        }
+    }
+
+    private void apply(InventoryChange change) {
+        lock.writeLock().lock();
+        try {
+            for (Car car : change.removed) {
+                fleet.remove(car.id);
+                for (Window window : windows.values()) {
+                    window.free.remove(car.id);
+                }
+            }
+            for (Car car : change.added) {
+                fleet.put(car.id, car);
+            }
+            if (!change.added.isEmpty()) {
+                for (Window window : windows.values()) {
+                    Set<Long> reserved = reservations
+                        .findReservedCarIds(window.startDate, window.endDate);
+                    for (Car car : change.added) {
+                        if (reserved.contains(car.id)) {
+                            window.free.remove(car.id);
+                        } else {
+                            window.free.put(car.id, car);
+                        }
+                    }
+                }
+            }
+            fleetKnown = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Compare every window with a full recomputation over all reservations
+     * and rebuild the view if they differ
+     * <p>
+     * A reservation is saved before it is applied to the view, and may be
+     * saved after the recomputation read the reservations but applied
+     * before the comparison. Cars that differ are therefore compared a
+     * second time, and only reported if they still differ.
+     * @return the ids of the cars the view got wrong
+     */
+    public Set<Long> check() {
+        if (!fleetKnown) {
+            return Set.of();
+        }
+        Set<Long> wrong = compare(null);
+        if (!wrong.isEmpty()) {
+            wrong = compare(wrong);
+        }
+        if (!wrong.isEmpty()) {
+            mismatches.increment(wrong.size());
+            Log.warnf("Free car view was wrong for cars %s, rebuilding",
+                wrong);
+            builtFor = null;
+        }
+        return wrong;
+    }
+
+    @Scheduled(every = "${availability.view.check-interval:10m}",
+        concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void scheduledCheck() {
+        check();
+    }
+
+    /**
+     * Recompute the reserved cars of every window without the lock, then
+     * compare them with the view under it
+     * @param cars the cars to compare, or null for every car
+     * @return the cars the view has wrong
+     */
+    private Set<Long> compare(Set<Long> cars) {
+        Map<Range, Window> built = windows;
+        List<Window> compared = List.copyOf(built.values());
+        Collection<Reservation> all = reservations.findAll();
+        List<Set<Long>> reserved = new ArrayList<>(compared.size());
+        for (Window window : compared) {
+            Set<Long> carIds = new HashSet<>();
+            for (Reservation reservation : all) {
+                if (reservation.isReserved(window.startDate,
+                    window.endDate)) {
+                    carIds.add(reservation.carId);
+                }
+            }
+            reserved.add(carIds);
+        }
+        Set<Long> wrong = new HashSet<>();
+        lock.writeLock().lock();
+        try {
+            if (windows != built) {
+                // rebuilt meanwhile
+                return Set.of();
+            }
+            for (int i = 0; i < compared.size(); i++) {
+                Window window = compared.get(i);
+                Set<Long> candidates = cars;
+                if (candidates == null) {
+                    candidates = new HashSet<>(fleet.keySet());
+                    candidates.addAll(window.free.keySet());
+                }
+                for (Long carId : candidates) {
+                    boolean free = fleet.containsKey(carId)
+                        && !reserved.get(i).contains(carId);
+                    if (free != window.free.containsKey(carId)) {
+                        wrong.add(carId);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return wrong;
+    }
+
+    private void rebuildInBackground(LocalDate today) {
+        if (rebuilding.compareAndSet(false, true)) {
+            Infrastructure.getDefaultWorkerPool().execute(() -> {
+                try {
+                    rebuild(today);
+                } finally {
+                    rebuilding.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Build the windows of every range, on the same day only the ones that
+     * were added since
+     */
+    private void rebuild(LocalDate today) {
+        lock.writeLock().lock();
+        try {
+            boolean sameDay = today.equals(builtFor);
+            Map<Range, Window> rebuilt = new HashMap<>();
+            for (Range range : ranges) {
+                Window window = sameDay ? windows.get(range) : null;
+                rebuilt.put(range, window != null ? window : build(
+                    today.plusDays(range.startOffset),
+                    today.plusDays(range.startOffset + range.days - 1)));
+            }
+            if (sameDay && rebuilt.size() == windows.size()) {
+                return;
+            }
+            windows = Map.copyOf(rebuilt);
+            builtFor = today;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Window build(LocalDate startDate, LocalDate endDate) {
+        Window window = new Window(startDate, endDate);
+        Set<Long> reserved = reservations.findReservedCarIds(startDate,
+            endDate);
+        for (Car car : fleet.values()) {
+            if (!reserved.contains(car.id)) {
+                window.free.put(car.id, car);
+            }
+        }
+        return window;
+    }
+
+    /**
+     * A date range as days after today and its length in days
+     */
+    private record Range(long startOffset, long days) {
+
+        /**
+         * @return the range, or null if it starts before today or ends
+         * before it starts
+         */
+        static Range of(LocalDate today, LocalDate startDate,
+                        LocalDate endDate) {
+            long startOffset = startDate.toEpochDay() - today.toEpochDay();
+            long days = endDate.toEpochDay() - startDate.toEpochDay() + 1;
+            return startOffset < 0 || days < 1 ? null :
+                new Range(startOffset, days);
+        }
+    }
+
+    private static final class Window {
+
+        final LocalDate startDate;
+        final LocalDate endDate;
+        final Map<Long, Car> free = new ConcurrentHashMap<>();
+
+        Window(LocalDate startDate, LocalDate endDate) {
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+    }
+}
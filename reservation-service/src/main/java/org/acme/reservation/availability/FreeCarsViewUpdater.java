@@ -0,0 +1,58 @@
+package org.acme.reservation.availability;
+
+import jakarta.annotation.Priority;
+import jakarta.decorator.Decorator;
+import jakarta.decorator.Delegate;
+import jakarta.inject.Inject;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationsRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Feeds every reservation saved by whichever repository is active into the
+ * {@link FreeCarsView}
+ */
+@Decorator
+@Priority(10)
+public abstract class FreeCarsViewUpdater implements ReservationsRepository {
+
+    @Inject
+    @Delegate
+    ReservationsRepository delegate;
+
+    @Inject
+    FreeCarsView view;
+
+    @Override
+    public Reservation save(Reservation reservation) {
+        Reservation saved = delegate.save(reservation);
+        view.reserved(saved);
+        return saved;
+    }
+
+    @Override
+    public Optional<Reservation> saveIfAvailable(Reservation reservation) {
+        Optional<Reservation> saved = delegate.saveIfAvailable(reservation);
+        saved.ifPresent(view::reserved);
+        return saved;
+    }
+
+    @Override
+    public List<Optional<Reservation>> saveAllIfAvailable(
+        List<Reservation> reservations) {
+        List<Optional<Reservation>> saved =
+            delegate.saveAllIfAvailable(reservations);
+        for (Optional<Reservation> reservation : saved) {
+            reservation.ifPresent(view::reserved);
+        }
+        return saved;
+    }
+
+    @Override
+    public void replicate(List<Reservation> reservations) {
+        delegate.replicate(reservations);
+        reservations.forEach(view::reserved);
+    }
+}
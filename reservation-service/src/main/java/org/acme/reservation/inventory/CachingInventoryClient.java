@@ -0,0 +1,289 @@
+package org.acme.reservation.inventory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.logging.Log;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a local copy of the fleet so that not every availability request
+ * has to fetch all cars from inventory-service.
+ * <p>
+ * A copy younger than {@code inventory.cache.ttl} is served as is. An
+ * older one is still served for up to {@code inventory.cache.max-stale}
+ * while it is revalidated in the background, after that callers wait for
+ * the revalidation. Revalidation first asks for the inventory version and
+ * only downloads the cars again when that version has changed, in pages of
+ * {@code inventory.cache.page-size} cars.
+ * <p>
+ * Every change of the fleet is fired as an {@link InventoryChange}.
+ * <p>
+ * Only one revalidation runs at a time: callers arriving while it is in
+ * flight wait for its result instead of sending their own requests.
+ */
+@ApplicationScoped
+public class CachingInventoryClient implements InventoryClient {
+
+    private final GraphQLInventoryClient inventory;
+    private final long ttlNanos;
+    private final long maxStaleNanos;
+    private final int pageSize;
+    private final AtomicReference<CompletableFuture<Snapshot>> inFlight =
+        new AtomicReference<>();
+    private final Counter hits;
+    private final Counter staleHits;
+    private final Counter misses;
+    private final Counter issuedFetches;
+    private final Counter coalescedFetches;
+
+    private final Timer versionCalls;
+    private final Timer carsCalls;
+    private final Event<InventoryChange> changes;
+
+    private volatile Snapshot snapshot;
+    private List<Car> published = List.of();
+
+    @Inject
+    public CachingInventoryClient(
+        GraphQLInventoryClient inventory,
+        MeterRegistry registry,
+        Event<InventoryChange> changes,
+        @ConfigProperty(name = "inventory.cache.ttl",
+            defaultValue = "10s") Duration ttl,
+        @ConfigProperty(name = "inventory.cache.max-stale",
+            defaultValue = "5m") Duration maxStale,
+        @ConfigProperty(name = "inventory.cache.page-size",
+            defaultValue = "1000") int pageSize) {
+        this.inventory = inventory;
+        this.changes = changes;
+        this.ttlNanos = ttl.toNanos();
+        this.maxStaleNanos = maxStale.toNanos();
+        this.pageSize = pageSize;
+        this.hits = registry.counter("inventory.cache.requests",
+            "result", "hit");
+        this.staleHits = registry.counter("inventory.cache.requests",
+            "result", "stale");
+        this.misses = registry.counter("inventory.cache.requests",
+            "result", "miss");
+        this.issuedFetches = registry.counter("inventory.fetches",
+            "type", "issued");
+        this.coalescedFetches = registry.counter("inventory.fetches",
+            "type", "coalesced");
+        this.versionCalls = clientTimer(registry, "inventoryVersion");
+        this.carsCalls = clientTimer(registry, "allCars");
+    }
+
+    private static Timer clientTimer(MeterRegistry registry, String method) {
+        return Timer.builder("client.latency")
+            .tag("class", GraphQLInventoryClient.class.getName())
+            .tag("method", method)
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+
+    @Override
+    public List<Car> allCars() {
+        Snapshot current = servable();
+        if (current != null) {
+            return current.cars;
+        }
+        try {
+            return revalidateOnce(true).join().cars;
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ?
+                cause : e;
+        }
+    }
+
+    @Override
+    public Uni<List<Car>> allCarsAsync() {
+        Snapshot current = servable();
+        return current != null ? Uni.createFrom().item(current.cars) :
+            Uni.createFrom().completionStage(revalidateOnce(false))
+                .map(revalidated -> revalidated.cars);
+    }
+
+    @Override
+    public Optional<List<Car>> cachedCars() {
+        Snapshot current = snapshot;
+        return current == null ? Optional.empty() :
+            Optional.of(current.cars);
+    }
+
+    /**
+     * Drop the local copy, the next caller fetches the cars again
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * @return the local copy if it can be served without waiting for
+     * inventory-service, or null
+     */
+    private Snapshot servable() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            long age = System.nanoTime() - current.validatedAt;
+            if (age < ttlNanos) {
+                hits.increment();
+                return current;
+            }
+            if (age < ttlNanos + maxStaleNanos) {
+                staleHits.increment();
+                revalidateInBackground();
+                return current;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    private void revalidateInBackground() {
+        if (inFlight.get() == null) {
+            Infrastructure.getDefaultWorkerPool().execute(() ->
+                revalidateOnce(true).exceptionally(e -> {
+                    Log.warn("Could not revalidate the inventory cache", e);
+                    return null;
+                }));
+        }
+    }
+
+    /**
+     * Revalidate the local copy, unless a revalidation is already running,
+     * in which case its result is shared instead of asking inventory-service
+     * again
+     * @param blocking whether to revalidate on the calling thread with the
+     * blocking client, or with the reactive one
+     */
+    private CompletableFuture<Snapshot> revalidateOnce(boolean blocking) {
+        CompletableFuture<Snapshot> revalidation = new CompletableFuture<>();
+        while (!inFlight.compareAndSet(null, revalidation)) {
+            CompletableFuture<Snapshot> running = inFlight.get();
+            if (running != null) {
+                coalescedFetches.increment();
+                return running;
+            }
+        }
+        issuedFetches.increment();
+        revalidation.whenComplete((revalidated, failure) ->
+            inFlight.compareAndSet(revalidation, null));
+        Snapshot current = snapshot;
+        if (blocking) {
+            try {
+                revalidation.complete(revalidate(current));
+            } catch (RuntimeException e) {
+                revalidation.completeExceptionally(e);
+            }
+        } else {
+            revalidateAsync(current).subscribe().with(revalidation::complete,
+                revalidation::completeExceptionally);
+        }
+        return revalidation;
+    }
+
+    private Snapshot revalidate(Snapshot current) {
+        long version = versionCalls.record(() -> inventory.inventoryVersion());
+        Snapshot revalidated;
+        if (current != null && current.version == version) {
+            revalidated = new Snapshot(current.cars, version);
+        } else {
+            // the version is read first, so a change racing with the
+            // download is caught by the next revalidation
+            revalidated = new Snapshot(
+                List.copyOf(carsCalls.record(this::download)), version);
+        }
+        publish(revalidated);
+        return revalidated;
+    }
+
+    private Uni<Snapshot> revalidateAsync(Snapshot current) {
+        return timed(versionCalls, inventory::inventoryVersionAsync)
+            .chain(version -> current != null && current.version == version ?
+                Uni.createFrom().item(new Snapshot(current.cars, version)) :
+                timed(carsCalls, () -> downloadAsync(new ArrayList<>()))
+                    .map(cars -> new Snapshot(List.copyOf(cars), version)))
+            .invoke(this::publish);
+    }
+
+    /**
+     * @return all cars, fetched page by page
+     */
+    private List<Car> download() {
+        List<Car> cars = new ArrayList<>();
+        List<Car> page;
+        do {
+            page = inventory.cars(null, pageSize, lastId(cars));
+            cars.addAll(page);
+        } while (page.size() == pageSize);
+        return cars;
+    }
+
+    /**
+     * Same as {@link #download()}, adding the pages after the ones in
+     * {@code cars}
+     */
+    private Uni<List<Car>> downloadAsync(List<Car> cars) {
+        return inventory.carsAsync(null, pageSize, lastId(cars))
+            .chain(page -> {
+                cars.addAll(page);
+                return page.size() == pageSize ? downloadAsync(cars) :
+                    Uni.createFrom().item(cars);
+            });
+    }
+
+    private static Long lastId(List<Car> cars) {
+        return cars.isEmpty() ? null : cars.get(cars.size() - 1).id;
+    }
+
+    private static <T> Uni<T> timed(Timer timer, Supplier<Uni<T>> call) {
+        return Uni.createFrom().deferred(() -> {
+            long started = System.nanoTime();
+            return call.get().onTermination().invoke(() -> timer.record(
+                System.nanoTime() - started, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    /**
+     * Replace the local copy and tell observers which cars changed
+     */
+    private synchronized void publish(Snapshot revalidated) {
+        snapshot = revalidated;
+        if (revalidated.cars != published) {
+            InventoryChange change =
+                InventoryChange.between(published, revalidated.cars);
+            published = revalidated.cars;
+            if (!change.isEmpty()) {
+                changes.fire(change);
+            }
+        }
+    }
+
+    private static final class Snapshot {
+
+        final List<Car> cars;
+        final long version;
+        final long validatedAt = System.nanoTime();
+
+        Snapshot(List<Car> cars, long version) {
+            this.cars = cars;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.acme.reservation.inventory;
+
+import java.util.List;
+
+/**
+ * Conditions of the cars query of inventory-service, unset ones match
+ * every car
+ */
+public class CarFilter {
+
+    public List<Long> ids;
+    public String manufacturer;
+    public String model;
+    public String licensePlatePrefix;
+
+}
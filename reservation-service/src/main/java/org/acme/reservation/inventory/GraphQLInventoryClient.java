@@ -1,13 +1,34 @@
 package org.acme.reservation.inventory;
 
 import io.smallrye.graphql.client.typesafe.api.GraphQLClientApi;
+import io.smallrye.graphql.client.typesafe.api.Header;
+import io.smallrye.mutiny.Uni;
+import org.acme.reservation.tracing.Tracing;
 import org.eclipse.microprofile.graphql.Query;
 
 import java.util.List;
 
 @GraphQLClientApi(configKey = "inventory")
-public interface GraphQLInventoryClient extends InventoryClient {
+@Header(name = Tracing.HEADER,
+    method = "org.acme.reservation.tracing.Tracing.traceId")
+public interface GraphQLInventoryClient {
+
+    /**
+     * @param filter conditions the cars have to meet, null for all cars
+     * @param first the most cars to return, null for no limit
+     * @param after id of the last car of the previous page, null to start
+     * with the first car
+     * @return the matching cars ordered by id
+     */
     @Query("cars")
-    List<Car> allCars();
-}
+    List<Car> cars(CarFilter filter, Integer first, Long after);
+
+    @Query("cars")
+    Uni<List<Car>> carsAsync(CarFilter filter, Integer first, Long after);
+
+    @Query("inventoryVersion")
+    long inventoryVersion();
 
+    @Query("inventoryVersion")
+    Uni<Long> inventoryVersionAsync();
+}
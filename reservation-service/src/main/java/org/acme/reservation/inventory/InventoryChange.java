@@ -0,0 +1,51 @@
+package org.acme.reservation.inventory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Event fired when the cached fleet changes, listing only the cars that
+ * differ from the previous fleet
+ */
+public class InventoryChange {
+
+    /**
+     * Cars that are new, or whose details changed
+     */
+    public final List<Car> added;
+    public final List<Car> removed;
+
+    public InventoryChange(List<Car> added, List<Car> removed) {
+        this.added = added;
+        this.removed = removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    static InventoryChange between(List<Car> previous, List<Car> current) {
+        Map<Long, Car> previousById = new HashMap<>();
+        for (Car car : previous) {
+            previousById.put(car.id, car);
+        }
+        List<Car> added = new ArrayList<>();
+        for (Car car : current) {
+            Car before = previousById.remove(car.id);
+            if (before == null || !sameDetails(before, car)) {
+                added.add(car);
+            }
+        }
+        return new InventoryChange(added,
+            new ArrayList<>(previousById.values()));
+    }
+
+    private static boolean sameDetails(Car a, Car b) {
+        return Objects.equals(a.licensePlateNumber, b.licensePlateNumber) &&
+            Objects.equals(a.manufacturer, b.manufacturer) &&
+            Objects.equals(a.model, b.model);
+    }
+}
@@ -1,8 +1,24 @@
 package org.acme.reservation.inventory;
 
+import io.smallrye.mutiny.Uni;
+
 import java.util.List;
+import java.util.Optional;
 
 public interface InventoryClient {
 
     List<Car> allCars();
+
+    /**
+     * Same as {@link #allCars()}, without blocking the calling thread
+     */
+    Uni<List<Car>> allCarsAsync();
+
+    /**
+     * @return a local copy of the cars, however old it is, without asking
+     * inventory-service; empty if the client keeps none
+     */
+    default Optional<List<Car>> cachedCars() {
+        return Optional.empty();
+    }
 }
@@ -1,17 +1,25 @@
 package org.acme.reservation.rental;
 
+import io.micrometer.core.annotation.Timed;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
 import org.jboss.resteasy.reactive.RestPath;
 
+import java.util.List;
+
 @RegisterRestClient(baseUri = "http://localhost:8082")
 @Path("/rental")
+@Timed(value = "client.latency", histogram = true)
 public interface RentalClient {
 
     @POST
     @Path("/start/{userId}/{reservationId}")
     Rental start(@RestPath String userId,
                  @RestPath Long reservationId);
+
+    @POST
+    @Path("/start")
+    List<Rental> startAll(List<RentalStart> starts);
 }
@@ -0,0 +1,164 @@
+package org.acme.reservation.rental;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.logging.Log;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationsRepository;
+import org.acme.reservation.tracing.Tracing;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rentals that still have to be started in rental-service.
+ * <p>
+ * Booking a reservation that starts today only records a pending start
+ * here, and in the repository the reservation is saved to. Starts the
+ * repository still holds as pending are queued again when the outbox is
+ * created, e.g. after a restart.
+ * <p>
+ * A scheduled job sends the pending starts to rental-service in batches
+ * and keeps every start of a failed batch, retrying it with exponential
+ * backoff until rental-service confirms it, which is then recorded in the
+ * repository. A start can therefore be delivered more than once,
+ * rental-service starts each reservation only once.
+ * <p>
+ * Every start carries the trace id of the booking that queued it, a start
+ * recovered after a restart gets a new one.
+ */
+@ApplicationScoped
+public class RentalOutbox {
+
+    private final RentalClient rentalClient;
+    private final ReservationsRepository reservations;
+    private final int batchSize;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final DelayQueue<PendingStart> pending = new DelayQueue<>();
+    private final Timer deliveryLatency;
+    private final Counter failedBatches;
+
+    public RentalOutbox(
+        @RestClient RentalClient rentalClient,
+        ReservationsRepository reservations,
+        MeterRegistry registry,
+        @ConfigProperty(name = "rental.outbox.batch-size",
+            defaultValue = "100") int batchSize,
+        @ConfigProperty(name = "rental.outbox.initial-backoff",
+            defaultValue = "1s") Duration initialBackoff,
+        @ConfigProperty(name = "rental.outbox.max-backoff",
+            defaultValue = "1m") Duration maxBackoff) {
+        this.rentalClient = rentalClient;
+        this.reservations = reservations;
+        this.batchSize = batchSize;
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        registry.gaugeCollectionSize("rental.outbox.depth", List.of(),
+            pending);
+        this.deliveryLatency = Timer.builder("rental.outbox.delivery")
+            .description("Time from booking to the confirmed rental start")
+            .register(registry);
+        this.failedBatches = registry.counter("rental.outbox.failures");
+        List<Reservation> recovered = reservations.pendingRentalStarts();
+        recovered.forEach(this::enqueue);
+        if (!recovered.isEmpty()) {
+            Log.infof("Queued %d rental starts that were not delivered",
+                recovered.size());
+        }
+    }
+
+    /**
+     * Queue the start of a reservation, to be delivered in the trace of
+     * the current request
+     */
+    public void enqueue(Reservation reservation) {
+        pending.add(new PendingStart(new RentalStart(reservation.userId,
+            reservation.id, Tracing.traceId())));
+    }
+
+    public int depth() {
+        return pending.size();
+    }
+
+    @Scheduled(every = "${rental.outbox.interval:1s}",
+        concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void deliver() {
+        List<PendingStart> batch = new ArrayList<>(batchSize);
+        while (pending.drainTo(batch, batchSize) > 0) {
+            List<RentalStart> starts = new ArrayList<>(batch.size());
+            List<Long> reservationIds = new ArrayList<>(batch.size());
+            for (PendingStart start : batch) {
+                starts.add(start.start);
+                reservationIds.add(start.start.reservationId);
+            }
+            try {
+                List<Rental> rentals = rentalClient.startAll(starts);
+                reservations.rentalsStarted(reservationIds);
+                long now = System.nanoTime();
+                for (PendingStart start : batch) {
+                    deliveryLatency.record(now - start.enqueuedAt,
+                        TimeUnit.NANOSECONDS);
+                }
+                Log.infof("Successfully started %d rentals", rentals.size());
+            } catch (RuntimeException e) {
+                failedBatches.increment();
+                Log.warnf("Could not start %d rentals, retrying later: %s",
+                    batch.size(), e.getMessage());
+                for (PendingStart start : batch) {
+                    pending.add(start.retry(initialBackoffNanos,
+                        maxBackoffNanos));
+                }
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    private static final class PendingStart implements Delayed {
+
+        final RentalStart start;
+        final long enqueuedAt;
+        final int attempts;
+        final long dueAt;
+
+        PendingStart(RentalStart start) {
+            this(start, System.nanoTime(), 0, System.nanoTime());
+        }
+
+        private PendingStart(RentalStart start, long enqueuedAt,
+                             int attempts, long dueAt) {
+            this.start = start;
+            this.enqueuedAt = enqueuedAt;
+            this.attempts = attempts;
+            this.dueAt = dueAt;
+        }
+
+        PendingStart retry(long initialBackoffNanos, long maxBackoffNanos) {
+            long backoff = Math.min(maxBackoffNanos,
+                initialBackoffNanos << Math.min(attempts, 20));
+            return new PendingStart(start, enqueuedAt, attempts + 1,
+                System.nanoTime() + backoff);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.nanoTime(),
+                TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt, ((PendingStart) other).dueAt);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.acme.reservation.rental;
+
+public class RentalStart {
+
+    public String userId;
+    public Long reservationId;
+    /**
+     * Trace of the booking that queued the start. Starts are delivered in
+     * batches later on, the trace of the delivering request is not theirs.
+     */
+    public String traceId;
+
+    public RentalStart() {
+    }
+
+    public RentalStart(String userId, Long reservationId, String traceId) {
+        this.userId = userId;
+        this.reservationId = reservationId;
+        this.traceId = traceId;
+    }
+}
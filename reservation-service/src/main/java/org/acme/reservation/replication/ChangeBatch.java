@@ -0,0 +1,35 @@
+package org.acme.reservation.replication;
+
+import org.acme.reservation.reservation.Reservation;
+
+import java.util.List;
+
+/**
+ * Consecutive changes of a {@link ReplicationLog}, the first one numbered
+ * {@code after + 1}
+ */
+public class ChangeBatch {
+
+    /**
+     * Run of the leader the changes were read from, see
+     * {@link ReplicationLog#run()}
+     */
+    public String run;
+    public long after;
+    /**
+     * Number of the latest change logged when the batch was read
+     */
+    public long head;
+    public List<Reservation> changes;
+
+    public ChangeBatch() {
+    }
+
+    public ChangeBatch(String run, long after, long head,
+                       List<Reservation> changes) {
+        this.run = run;
+        this.after = after;
+        this.head = head;
+        this.changes = changes;
+    }
+}
@@ -0,0 +1,26 @@
+package org.acme.reservation.replication;
+
+import io.quarkus.runtime.annotations.RegisterForProxy;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import org.jboss.resteasy.reactive.RestQuery;
+
+/**
+ * Reads the {@link ReplicationLog} of the leader a follower replicates
+ */
+@Path("/replication")
+@RegisterForProxy
+public interface LeaderClient {
+
+    /**
+     * @throws jakarta.ws.rs.WebApplicationException with status 410 if the
+     * leader no longer keeps these changes
+     */
+    @GET
+    @Path("changes")
+    ChangeBatch changes(@RestQuery long after, @RestQuery int limit);
+
+    @GET
+    @Path("snapshot")
+    ReplicationSnapshot snapshot();
+}
@@ -0,0 +1,217 @@
+package org.acme.reservation.replication;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.quarkus.logging.Log;
+import io.quarkus.rest.client.reactive.QuarkusRestClientBuilder;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationArchive;
+import org.acme.reservation.reservation.ReservationsRepository;
+import org.acme.reservation.shard.PeerAuthentication;
+import org.acme.reservation.shard.ShardClient;
+import org.acme.reservation.shard.TimedClient;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follower side of replication, enabled by setting
+ * {@code reservation.replication.leader}. A follower books nothing itself,
+ * bookings are forwarded to the leader, and every
+ * {@code reservation.replication.interval} it replays the changes of the
+ * leader's {@link ReplicationLog} into its own repository. A follower
+ * that starts with reservations of its own, fell behind the changes the
+ * leader keeps, or finds the leader restarted since the last pull, first
+ * loads a {@link ReplicationSnapshot}.
+ * <p>
+ * Reads are only answered while the follower has applied every change
+ * the leader logged up to {@code reservation.replication.max-staleness}
+ * ago.
+ */
+@Singleton
+public class Replica {
+
+    private final ReservationsRepository repository;
+    private final ReservationArchive archive;
+    private final LeaderClient changes;
+    private final ShardClient leader;
+    private final int batchSize;
+    private final long maxStalenessNanos;
+
+    private boolean needsSnapshot;
+    private String leaderRun;
+    private volatile long applied;
+    private volatile long leaderHead;
+    private volatile boolean synced;
+    private volatile long syncedAt;
+
+    @Inject
+    public Replica(
+        ReservationsRepository repository,
+        ReservationArchive archive,
+        MeterRegistry registry,
+        @ConfigProperty(name = "reservation.replication.leader")
+        Optional<URI> leader,
+        @ConfigProperty(name = "reservation.replication.batch-size",
+            defaultValue = "1000") int batchSize,
+        @ConfigProperty(name = "reservation.replication.max-staleness",
+            defaultValue = "5s") Duration maxStaleness,
+        PeerAuthentication authentication) {
+        this(repository, archive, registry,
+            leader.map(uri -> TimedClient.wrap(LeaderClient.class,
+                QuarkusRestClientBuilder.newBuilder().baseUri(uri)
+                    .build(LeaderClient.class), registry)).orElse(null),
+            leader.map(uri -> TimedClient.wrap(ShardClient.class,
+                QuarkusRestClientBuilder.newBuilder().baseUri(uri)
+                    .register(authentication).build(ShardClient.class),
+                registry)).orElse(null),
+            batchSize, maxStaleness);
+    }
+
+    public Replica(ReservationsRepository repository,
+                   ReservationArchive archive, MeterRegistry registry,
+                   LeaderClient changes, ShardClient leader, int batchSize,
+                   Duration maxStaleness) {
+        this.repository = repository;
+        this.archive = archive;
+        this.changes = changes;
+        this.leader = leader;
+        this.batchSize = batchSize;
+        this.maxStalenessNanos = maxStaleness.toNanos();
+        if (changes != null) {
+            needsSnapshot = repository.count() > 0 || archive.size() > 0;
+            registry.gauge("reservation.replication.lag", this,
+                Replica::lag);
+            TimeGauge.builder("reservation.replication.staleness", this,
+                    TimeUnit.NANOSECONDS, Replica::stalenessNanos)
+                .description("Age of the newest leader state fully applied")
+                .register(registry);
+        }
+    }
+
+    /**
+     * @return the node bookings have to be sent to, or null if this node
+     * is not a follower
+     */
+    public ShardClient leader() {
+        return leader;
+    }
+
+    /**
+     * Turn a read away if this follower is further behind its leader than
+     * allowed
+     */
+    public void checkFresh() {
+        if (changes != null && stalenessNanos() > maxStalenessNanos) {
+            throw new ServiceUnavailableException(
+                "Replica is behind its leader", 1L);
+        }
+    }
+
+    /**
+     * @return changes the leader logged that are not applied yet, as of
+     * the last request
+     */
+    public long lag() {
+        return Math.max(0, leaderHead - applied);
+    }
+
+    @Scheduled(every = "${reservation.replication.interval:1s}",
+        concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public synchronized void pull() {
+        if (changes == null) {
+            return;
+        }
+        try {
+            while (true) {
+                long asked = System.nanoTime();
+                if (needsSnapshot) {
+                    load(changes.snapshot());
+                }
+                ChangeBatch batch;
+                try {
+                    batch = changes.changes(applied, batchSize);
+                } catch (WebApplicationException e) {
+                    if (e.getResponse().getStatus() !=
+                        Response.Status.GONE.getStatusCode()) {
+                        throw e;
+                    }
+                    needsSnapshot = true;
+                    continue;
+                }
+                if (leaderRun == null) {
+                    leaderRun = batch.run;
+                } else if (!leaderRun.equals(batch.run)) {
+                    // the leader restarted and numbers its changes anew,
+                    // those after applied are not the ones missing here
+                    Log.infof("Leader restarted, changes after %d are "
+                        + "from its new run", applied);
+                    needsSnapshot = true;
+                    continue;
+                }
+                repository.replicate(batch.changes);
+                applied = batch.after + batch.changes.size();
+                leaderHead = batch.head;
+                if (applied >= batch.head) {
+                    syncedAt = asked;
+                    synced = true;
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.warnf("Could not replicate from the leader, %d changes "
+                + "behind: %s", lag(), e.getMessage());
+        }
+    }
+
+    /**
+     * Add what the snapshot holds and this node does not, and continue
+     * after the snapshot
+     */
+    private void load(ReplicationSnapshot snapshot) {
+        Set<Long> known = new HashSet<>();
+        for (Reservation reservation : repository.findAll()) {
+            known.add(reservation.id);
+        }
+        for (Reservation reservation : archive.findAll()) {
+            known.add(reservation.id);
+        }
+        repository.replicate(unknown(snapshot.reservations, known));
+        archive.addAll(unknown(snapshot.archived, known));
+        applied = snapshot.seq;
+        leaderRun = snapshot.run;
+        needsSnapshot = false;
+        Log.infof("Loaded snapshot of %d reservations up to change %d",
+            snapshot.reservations.size() + snapshot.archived.size(),
+            snapshot.seq);
+    }
+
+    private static List<Reservation> unknown(List<Reservation> reservations,
+                                             Set<Long> known) {
+        List<Reservation> unknown = new ArrayList<>();
+        for (Reservation reservation : reservations) {
+            if (known.add(reservation.id)) {
+                unknown.add(reservation);
+            }
+        }
+        return unknown;
+    }
+
+    private double stalenessNanos() {
+        return synced ? System.nanoTime() - syncedAt :
+            Double.POSITIVE_INFINITY;
+    }
+}
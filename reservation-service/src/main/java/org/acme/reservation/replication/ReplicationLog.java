@@ -0,0 +1,116 @@
+package org.acme.reservation.replication;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.inject.Singleton;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationArchive;
+import org.acme.reservation.reservation.ReservationsRepository;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Ordered log of the reservations saved on this node, numbered from one,
+ * that followers replay. Only the latest
+ * {@code reservation.replication.log-size} changes are kept, a follower
+ * that fell further behind starts over from a {@link ReplicationSnapshot}.
+ * <p>
+ * Saves hold the read lock while they store and log a reservation, so a
+ * snapshot taken under the write lock holds exactly the changes up to
+ * its sequence number.
+ * <p>
+ * The log is not persisted, after a restart numbering starts over from
+ * one. Every run of the log has its own id, sent along with its changes,
+ * so a follower can tell that the numbers it kept belong to an earlier run
+ * and start over from a snapshot.
+ */
+@Singleton
+public class ReplicationLog {
+
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final String run = UUID.randomUUID().toString();
+    private final Reservation[] ring;
+    private long head;
+
+    public ReplicationLog(
+        MeterRegistry registry,
+        @ConfigProperty(name = "reservation.replication.log-size",
+            defaultValue = "100000") int size) {
+        this.ring = new Reservation[size];
+        registry.gauge("reservation.replication.head", this,
+            ReplicationLog::head);
+    }
+
+    public synchronized void append(List<Reservation> reservations) {
+        for (Reservation reservation : reservations) {
+            head++;
+            ring[(int) (head % ring.length)] = reservation;
+        }
+    }
+
+    /**
+     * @return the id of this run of the log, changes of different runs
+     * with the same number are not the same change
+     */
+    public String run() {
+        return run;
+    }
+
+    public synchronized long head() {
+        return head;
+    }
+
+    /**
+     * @return at most {@code limit} changes following the one numbered
+     * {@code after}, or null if some of them are no longer kept
+     */
+    public synchronized ChangeBatch changesAfter(long after, int limit) {
+        if (after < head - ring.length || after > head) {
+            return null;
+        }
+        int count = (int) Math.min(limit, head - after);
+        List<Reservation> changes = new ArrayList<>(count);
+        for (long seq = after + 1; seq <= after + count; seq++) {
+            changes.add(ring[(int) (seq % ring.length)]);
+        }
+        return new ChangeBatch(run, after, head, changes);
+    }
+
+    /**
+     * Everything the repository and the archive hold, as of the last
+     * logged change. A reservation moved to the archive while the
+     * snapshot is taken is only listed as archived.
+     */
+    public ReplicationSnapshot snapshot(ReservationsRepository repository,
+                                        ReservationArchive archive) {
+        lock.writeLock().lock();
+        try {
+            ReplicationSnapshot snapshot = new ReplicationSnapshot();
+            snapshot.run = run;
+            snapshot.seq = head();
+            // reservations are added to the archive before they leave the
+            // repository, read in this order none can be missed
+            List<Reservation> active = repository.findAll();
+            snapshot.archived = archive.findAll();
+            Set<Long> archivedIds = new HashSet<>();
+            for (Reservation reservation : snapshot.archived) {
+                archivedIds.add(reservation.id);
+            }
+            snapshot.reservations = new ArrayList<>(active.size());
+            for (Reservation reservation : active) {
+                if (!archivedIds.contains(reservation.id)) {
+                    snapshot.reservations.add(reservation);
+                }
+            }
+            return snapshot;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
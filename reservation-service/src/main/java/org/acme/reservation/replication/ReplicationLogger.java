@@ -0,0 +1,66 @@
+package org.acme.reservation.replication;
+
+import jakarta.annotation.Priority;
+import jakarta.decorator.Decorator;
+import jakarta.decorator.Delegate;
+import jakarta.inject.Inject;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationsRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Appends every reservation saved by whichever repository is active to
+ * the {@link ReplicationLog}
+ */
+@Decorator
+@Priority(20)
+public abstract class ReplicationLogger implements ReservationsRepository {
+
+    @Inject
+    @Delegate
+    ReservationsRepository delegate;
+
+    @Inject
+    ReplicationLog log;
+
+    @Override
+    public Reservation save(Reservation reservation) {
+        log.lock.readLock().lock();
+        try {
+            Reservation saved = delegate.save(reservation);
+            log.append(List.of(saved));
+            return saved;
+        } finally {
+            log.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Reservation> saveIfAvailable(Reservation reservation) {
+        log.lock.readLock().lock();
+        try {
+            Optional<Reservation> saved =
+                delegate.saveIfAvailable(reservation);
+            saved.ifPresent(result -> log.append(List.of(result)));
+            return saved;
+        } finally {
+            log.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Optional<Reservation>> saveAllIfAvailable(
+        List<Reservation> reservations) {
+        log.lock.readLock().lock();
+        try {
+            List<Optional<Reservation>> saved =
+                delegate.saveAllIfAvailable(reservations);
+            log.append(saved.stream().flatMap(Optional::stream).toList());
+            return saved;
+        } finally {
+            log.lock.readLock().unlock();
+        }
+    }
+}
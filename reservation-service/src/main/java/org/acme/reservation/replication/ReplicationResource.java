@@ -0,0 +1,54 @@
+package org.acme.reservation.replication;
+
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.acme.reservation.reservation.ReservationArchive;
+import org.acme.reservation.reservation.ReservationsRepository;
+import org.jboss.resteasy.reactive.RestQuery;
+
+/**
+ * The {@link ReplicationLog} of this node, read by its followers
+ */
+@Path("replication")
+@Produces(MediaType.APPLICATION_JSON)
+public class ReplicationResource {
+
+    private final ReplicationLog log;
+    private final ReservationsRepository repository;
+    private final ReservationArchive archive;
+
+    public ReplicationResource(ReplicationLog log,
+                               ReservationsRepository repository,
+                               ReservationArchive archive) {
+        this.log = log;
+        this.repository = repository;
+        this.archive = archive;
+    }
+
+    /**
+     * Changes following the one numbered {@code after}, or 410 if they are
+     * no longer kept and the follower has to start from a snapshot
+     */
+    @GET
+    @Path("changes")
+    public ChangeBatch changes(@RestQuery long after,
+                               @RestQuery @DefaultValue("1000") int limit) {
+        ChangeBatch batch = log.changesAfter(after, limit);
+        if (batch == null) {
+            throw new ClientErrorException("Changes after " + after
+                + " are no longer kept", Response.Status.GONE);
+        }
+        return batch;
+    }
+
+    @GET
+    @Path("snapshot")
+    public ReplicationSnapshot snapshot() {
+        return log.snapshot(repository, archive);
+    }
+}
@@ -0,0 +1,17 @@
+package org.acme.reservation.replication;
+
+import org.acme.reservation.reservation.Reservation;
+
+import java.util.List;
+
+/**
+ * All reservations of a leader as of the change numbered {@code seq} of
+ * its run {@code run}
+ */
+public class ReplicationSnapshot {
+
+    public String run;
+    public long seq;
+    public List<Reservation> reservations;
+    public List<Reservation> archived;
+}
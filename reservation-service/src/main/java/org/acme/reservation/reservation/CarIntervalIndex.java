@@ -0,0 +1,54 @@
+package org.acme.reservation.reservation;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Booked days of a single car, kept as disjoint intervals of epoch days
+ * sorted by their start day. Overlapping or adjacent bookings are merged,
+ * so an overlap check only needs to look at the one interval starting
+ * closest before the end of the queried range.
+ */
+class CarIntervalIndex {
+
+    private final TreeMap<Long, Long> intervals = new TreeMap<>();
+
+    synchronized void add(LocalDate startDay, LocalDate endDay) {
+        long start = startDay.toEpochDay();
+        long end = endDay.toEpochDay();
+        // swallow the interval touching the new one from the left
+        Map.Entry<Long, Long> floor = intervals.floorEntry(start);
+        if (floor != null && floor.getValue() >= start - 1) {
+            start = floor.getKey();
+            end = Math.max(end, floor.getValue());
+        }
+        // and every interval starting inside (or right after) the new one
+        Map.Entry<Long, Long> next = intervals.ceilingEntry(start);
+        while (next != null && next.getKey() <= end + 1) {
+            end = Math.max(end, next.getValue());
+            intervals.remove(next.getKey());
+            next = intervals.higherEntry(start);
+        }
+        intervals.put(start, end);
+    }
+
+    /**
+     * Take over the bookings of another index, readers see either the old
+     * or the new bookings
+     */
+    synchronized void replaceWith(CarIntervalIndex other) {
+        intervals.clear();
+        intervals.putAll(other.intervals);
+    }
+
+    /**
+     * Check if any booking of this car overlaps the given duration
+     * @return true if the dates overlap with a booking, false otherwise
+     */
+    synchronized boolean isReserved(LocalDate startDay, LocalDate endDay) {
+        Map.Entry<Long, Long> floor =
+            intervals.floorEntry(endDay.toEpochDay());
+        return floor != null && floor.getValue() >= startDay.toEpochDay();
+    }
+}
@@ -0,0 +1,83 @@
+package org.acme.reservation.reservation;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * All repository state that belongs to a single car. Writers to
+ * different cars never touch the same partition, and conflict-checked
+ * writes to the same car are serialized by its {@link #lock}. The
+ * partition also keeps its car's reservations, so its indexes can be
+ * rebuilt when ended reservations are archived.
+ */
+class CarPartition {
+
+    final ReentrantLock lock = new ReentrantLock();
+    final CarIntervalIndex intervals = new CarIntervalIndex();
+    final DayBitmap occupancy = new DayBitmap();
+    private final List<Reservation> reservations = new ArrayList<>();
+
+    boolean isReserved(LocalDate startDay, LocalDate endDay) {
+        return intervals.isReserved(startDay, endDay);
+    }
+
+    void add(Reservation reservation) {
+        reservations.add(reservation);
+        intervals.add(reservation.startDay, reservation.endDay);
+        occupancy.set(reservation.startDay.toEpochDay(),
+            reservation.endDay.toEpochDay());
+    }
+
+    /**
+     * Remove the reservations that ended before the given day and accepted
+     * by {@code removable}, and rebuild the booked days from the rest. The
+     * caller holds the {@link #lock}.
+     * @return the removed reservations
+     */
+    List<Reservation> removeEndedBefore(LocalDate day,
+                                        Predicate<Reservation> removable) {
+        return removeIf(reservation -> reservation.endDay.isBefore(day) &&
+            removable.test(reservation));
+    }
+
+    /**
+     * Remove the reservations accepted by {@code removable}, and rebuild
+     * the booked days from the rest. The caller holds the {@link #lock}.
+     * @return the removed reservations
+     */
+    List<Reservation> removeIf(Predicate<Reservation> removable) {
+        List<Reservation> removed = new ArrayList<>();
+        CarPartition rebuilt = new CarPartition();
+        for (Reservation reservation : reservations) {
+            if (removable.test(reservation)) {
+                removed.add(reservation);
+            } else {
+                rebuilt.add(reservation);
+            }
+        }
+        if (!removed.isEmpty()) {
+            reservations.clear();
+            reservations.addAll(rebuilt.reservations);
+            intervals.replaceWith(rebuilt.intervals);
+            occupancy.replaceWith(rebuilt.occupancy);
+        }
+        return removed;
+    }
+
+    /**
+     * Lock several partitions. Taking them in car id order means two
+     * threads locking overlapping sets of cars cannot deadlock.
+     */
+    static void lockAll(SortedMap<Long, CarPartition> partitions) {
+        partitions.values().forEach(partition -> partition.lock.lock());
+    }
+
+    static void unlockAll(Collection<CarPartition> partitions) {
+        partitions.forEach(partition -> partition.lock.unlock());
+    }
+}
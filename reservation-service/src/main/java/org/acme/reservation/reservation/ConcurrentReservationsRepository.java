@@ -0,0 +1,290 @@
+package org.acme.reservation.reservation;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.quarkus.arc.properties.IfBuildProperty;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * Reservations store for write-heavy workloads, enabled with
+ * {@code reservation.repository=concurrent}.
+ * <p>
+ * Per-car state lives in its own {@link CarPartition}, so bookings of
+ * different cars do not contend, and conflict checks only lock the
+ * partition of the booked car. All reservations, and each user's
+ * reservations, are additionally appended to a lock-free
+ * {@link ReservationLog}, so {@link #findAll()} and
+ * {@link #findByUser(String)} return consistent point-in-time snapshots
+ * without copying on every save.
+ */
+@Singleton
+@IfBuildProperty(name = "reservation.repository", stringValue = "concurrent")
+public class ConcurrentReservationsRepository
+    implements ReservationsRepository {
+
+    private final ReservationIds ids;
+    private final ReservationLog log = new ReservationLog();
+    private final ConcurrentMap<String, ReservationLog> byUser =
+        new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, CarPartition> partitions =
+        new ConcurrentHashMap<>();
+
+    public ConcurrentReservationsRepository() {
+        this(new ReservationIds());
+    }
+
+    @Inject
+    public ConcurrentReservationsRepository(ReservationIds ids) {
+        this.ids = ids;
+    }
+
+    @Override
+    public List<Reservation> findAll() {
+        return log.snapshot();
+    }
+
+    @Override
+    public int count() {
+        return log.size();
+    }
+
+    @Override
+    public List<Reservation> findByUser(String userId) {
+        ReservationLog reservations = byUser.get(userId);
+        return reservations == null ?
+            Collections.emptyList() : reservations.snapshot();
+    }
+
+    @Override
+    public Set<Long> findReservedCarIds(LocalDate startDay,
+                                        LocalDate endDay) {
+        Set<Long> reserved = new HashSet<>();
+        partitions.forEach((carId, partition) -> {
+            if (partition.isReserved(startDay, endDay)) {
+                reserved.add(carId);
+            }
+        });
+        return reserved;
+    }
+
+    @Override
+    public Map<Long, BitSet> findOccupiedDays(LocalDate startDay,
+                                              LocalDate endDay) {
+        Map<Long, BitSet> occupied = new HashMap<>();
+        partitions.forEach((carId, partition) -> {
+            BitSet days = partition.occupancy.slice(startDay.toEpochDay(),
+                endDay.toEpochDay());
+            if (!days.isEmpty()) {
+                occupied.put(carId, days);
+            }
+        });
+        return occupied;
+    }
+
+    @Override
+    public Reservation save(Reservation reservation) {
+        CarPartition partition = partitionOf(reservation.carId);
+        partition.lock.lock();
+        try {
+            reservation.id = ids.next();
+            partition.add(reservation);
+        } finally {
+            partition.lock.unlock();
+        }
+        append(reservation);
+        return reservation;
+    }
+
+    @Override
+    public Optional<Reservation> saveIfAvailable(Reservation reservation) {
+        CarPartition partition = partitionOf(reservation.carId);
+        // a conflict seen without the lock was there when it was seen, so
+        // it can be rejected right away: the request is ordered before a
+        // removal of the booking that may follow, such as taking back a
+        // save that could not be written. Only accepting needs the lock.
+        if (partition.isReserved(reservation.startDay, reservation.endDay)) {
+            return Optional.empty();
+        }
+        partition.lock.lock();
+        try {
+            if (partition.isReserved(reservation.startDay,
+                reservation.endDay)) {
+                return Optional.empty();
+            }
+            reservation.id = ids.next();
+            partition.add(reservation);
+        } finally {
+            partition.lock.unlock();
+        }
+        append(reservation);
+        return Optional.of(reservation);
+    }
+
+    @Override
+    public List<Optional<Reservation>> saveAllIfAvailable(
+        List<Reservation> reservations) {
+        SortedMap<Long, CarPartition> involved = new TreeMap<>();
+        for (Reservation reservation : reservations) {
+            involved.computeIfAbsent(reservation.carId, this::partitionOf);
+        }
+        List<Optional<Reservation>> results =
+            new ArrayList<>(reservations.size());
+        List<Reservation> accepted = new ArrayList<>();
+        CarPartition.lockAll(involved);
+        try {
+            for (Reservation reservation : reservations) {
+                CarPartition partition = involved.get(reservation.carId);
+                // accepted reservations are added to the partition right
+                // away, so later ones of the batch are checked against them
+                if (partition.isReserved(reservation.startDay,
+                    reservation.endDay)) {
+                    results.add(Optional.empty());
+                    continue;
+                }
+                reservation.id = ids.next();
+                partition.add(reservation);
+                accepted.add(reservation);
+                results.add(Optional.of(reservation));
+            }
+        } finally {
+            CarPartition.unlockAll(involved.values());
+        }
+        accepted.forEach(this::indexByUser);
+        log.appendAll(accepted);
+        return results;
+    }
+
+    @Override
+    public void replicate(List<Reservation> reservations) {
+        reservations.forEach(this::restore);
+    }
+
+    /**
+     * Nothing is kept across restarts, the outbox still holds every rental
+     * start of this process
+     */
+    @Override
+    public List<Reservation> pendingRentalStarts() {
+        return List.of();
+    }
+
+    @Override
+    public void rentalsStarted(List<Long> reservationIds) {
+    }
+
+    @Override
+    public int archiveEndedBefore(LocalDate day, ReservationArchive archive) {
+        // reservations are indexed by user and then added to the log after
+        // leaving the partition, only the ones already logged can be
+        // removed from all three
+        Set<Reservation> logged = new HashSet<>(log.snapshot());
+        Set<Reservation> ended = new LinkedHashSet<>();
+        partitions.values().forEach(partition -> {
+            partition.lock.lock();
+            try {
+                ended.addAll(partition.removeEndedBefore(day,
+                    logged::contains));
+            } finally {
+                partition.lock.unlock();
+            }
+        });
+        if (ended.isEmpty()) {
+            return 0;
+        }
+        archive.addAll(ended);
+        log.removeAll(ended);
+        Set<String> users = new HashSet<>();
+        for (Reservation reservation : ended) {
+            if (reservation.userId != null) {
+                users.add(reservation.userId);
+            }
+        }
+        for (String user : users) {
+            byUser.get(user).removeAll(ended);
+        }
+        return ended.size();
+    }
+
+    /**
+     * Put back a reservation that already has an id, e.g. when recovering
+     * from a journal. The id sequence continues after the largest id seen.
+     */
+    void restore(Reservation reservation) {
+        CarPartition partition = partitionOf(reservation.carId);
+        partition.lock.lock();
+        try {
+            ids.continueAfter(reservation.id);
+            partition.add(reservation);
+        } finally {
+            partition.lock.unlock();
+        }
+        append(reservation);
+    }
+
+    /**
+     * Take back reservations that were saved, e.g. because they could not
+     * be made durable. Their days are free again.
+     */
+    void remove(List<Reservation> reservations) {
+        Set<Reservation> removed = new HashSet<>(reservations);
+        for (Reservation reservation : reservations) {
+            CarPartition partition = partitionOf(reservation.carId);
+            partition.lock.lock();
+            try {
+                partition.removeIf(removed::contains);
+            } finally {
+                partition.lock.unlock();
+            }
+        }
+        log.removeAll(removed);
+        for (Reservation reservation : reservations) {
+            ReservationLog userReservations = reservation.userId == null ?
+                null : byUser.get(reservation.userId);
+            if (userReservations != null) {
+                userReservations.removeAll(removed);
+            }
+        }
+    }
+
+    /**
+     * Make sure ids handed out from now on are larger than the given one
+     */
+    void continueIdsAfter(long id) {
+        ids.continueAfter(id);
+    }
+
+    private CarPartition partitionOf(Long carId) {
+        return partitions.computeIfAbsent(carId, id -> new CarPartition());
+    }
+
+    /**
+     * The user index is written first, so every reservation in the log
+     * is also found in its user's log
+     */
+    private void append(Reservation reservation) {
+        indexByUser(reservation);
+        log.append(reservation);
+    }
+
+    private void indexByUser(Reservation reservation) {
+        if (reservation.userId != null) {
+            byUser.computeIfAbsent(reservation.userId,
+                id -> new ReservationLog()).append(reservation);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.acme.reservation.reservation;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Set of epoch days stored as 64-day words. Only words with at least one
+ * day set are kept, in two parallel arrays sorted by word index, so a car
+ * booked for a few weeks a year costs a few dozen bytes.
+ * <p>
+ * The arrays are replaced, never modified, on every change. Readers need
+ * no lock, writers have to be serialized by the caller.
+ */
+class DayBitmap {
+
+    private static final long[] EMPTY = new long[0];
+
+    private volatile Words words = new Words(EMPTY, EMPTY);
+
+    /**
+     * Mark every day from {@code fromDay} to {@code toDay}, inclusive
+     */
+    void set(long fromDay, long toDay) {
+        Words current = words;
+        long[] keys = current.keys;
+        long[] bits = current.bits;
+        for (long key = fromDay >> 6; key <= toDay >> 6; key++) {
+            long first = Math.max(fromDay, key << 6) - (key << 6);
+            long last = Math.min(toDay, (key << 6) + 63) - (key << 6);
+            long mask = (-1L >>> (63 - last)) & (-1L << first);
+            int index = Arrays.binarySearch(keys, key);
+            if (index < 0) {
+                index = -index - 1;
+                keys = insert(keys, index, key);
+                bits = insert(bits, index, 0L);
+            } else if (bits == current.bits) {
+                bits = bits.clone();
+            }
+            bits[index] |= mask;
+        }
+        words = new Words(keys, bits);
+    }
+
+    /**
+     * Take over the days of another bitmap
+     */
+    void replaceWith(DayBitmap other) {
+        words = other.words;
+    }
+
+    /**
+     * @return the days from {@code fromDay} to {@code toDay} as a bit set
+     * whose bit {@code i} is set if day {@code fromDay + i} is set here
+     */
+    BitSet slice(long fromDay, long toDay) {
+        Words current = words;
+        BitSet slice = new BitSet((int) (toDay - fromDay + 1));
+        int index = Arrays.binarySearch(current.keys, fromDay >> 6);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        for (; index < current.keys.length &&
+            current.keys[index] <= toDay >> 6; index++) {
+            long word = current.bits[index];
+            long base = current.keys[index] << 6;
+            while (word != 0) {
+                long day = base + Long.numberOfTrailingZeros(word);
+                if (day >= fromDay && day <= toDay) {
+                    slice.set((int) (day - fromDay));
+                }
+                word &= word - 1;
+            }
+        }
+        return slice;
+    }
+
+    private static long[] insert(long[] array, int index, long value) {
+        long[] copy = new long[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        copy[index] = value;
+        System.arraycopy(array, index, copy, index + 1,
+            array.length - index);
+        return copy;
+    }
+
+    private static final class Words {
+
+        final long[] keys;
+        final long[] bits;
+
+        Words(long[] keys, long[] bits) {
+            this.keys = keys;
+            this.bits = bits;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.acme.reservation.reservation;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.logging.Log;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Reservations store that survives restarts, enabled with
+ * {@code reservation.repository=durable}.
+ * <p>
+ * Reads are served by an in-memory {@link ConcurrentReservationsRepository}.
+ * Every saved reservation is also appended to a {@link ReservationJournal}
+ * and a save only returns once its record is on disk. A reservation that
+ * cannot be written is taken out of memory again before the save fails.
+ * <p>
+ * The rental start of a reservation that {@link Reservation#startsToday()}
+ * is recorded in the same journal record, so it is still pending after a
+ * restart until {@link #rentalsStarted(List)} confirms it. On startup the
+ * journal's snapshot and log are replayed into memory, and the id
+ * sequence continues where it stopped.
+ * <p>
+ * Reservations moved to the {@link ReservationArchive} are kept in the
+ * journal's snapshots, so the archive is rebuilt after a restart.
+ */
+@Singleton
+@IfBuildProperty(name = "reservation.repository", stringValue = "durable")
+public class DurableReservationsRepository
+    implements ReservationsRepository {
+
+    private final ConcurrentReservationsRepository memory;
+    private final ReservationArchive archive;
+    private final ReservationJournal journal;
+
+    public DurableReservationsRepository(ReservationArchive archive,
+                                         Path directory, boolean groupCommit,
+                                         int snapshotEvery) {
+        this(archive, new ReservationIds(), directory, groupCommit,
+            snapshotEvery);
+    }
+
+    @Inject
+    public DurableReservationsRepository(
+        ReservationArchive archive,
+        ReservationIds ids,
+        @ConfigProperty(name = "reservation.journal.dir",
+            defaultValue = "data/reservations") Path directory,
+        @ConfigProperty(name = "reservation.journal.group-commit",
+            defaultValue = "true") boolean groupCommit,
+        @ConfigProperty(name = "reservation.journal.snapshot-every",
+            defaultValue = "100000") int snapshotEvery) {
+        long started = System.nanoTime();
+        this.archive = archive;
+        memory = new ConcurrentReservationsRepository(ids);
+        journal = new ReservationJournal(directory, groupCommit,
+            snapshotEvery);
+        int recovered = 0;
+        for (Reservation reservation : journal.recover()) {
+            memory.restore(reservation);
+            recovered++;
+        }
+        memory.continueIdsAfter(journal.lastId());
+        journal.start();
+        Log.infof("Recovered %d reservations from %s in %d ms", recovered,
+            directory, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @Override
+    public List<Reservation> findAll() {
+        return memory.findAll();
+    }
+
+    @Override
+    public int count() {
+        return memory.count();
+    }
+
+    @Override
+    public List<Reservation> findByUser(String userId) {
+        return memory.findByUser(userId);
+    }
+
+    @Override
+    public Set<Long> findReservedCarIds(LocalDate startDay,
+                                        LocalDate endDay) {
+        return memory.findReservedCarIds(startDay, endDay);
+    }
+
+    @Override
+    public Map<Long, BitSet> findOccupiedDays(LocalDate startDay,
+                                              LocalDate endDay) {
+        return memory.findOccupiedDays(startDay, endDay);
+    }
+
+    @Override
+    public Reservation save(Reservation reservation) {
+        memory.save(reservation);
+        write(List.of(reservation), rentalStarts(List.of(reservation)));
+        return reservation;
+    }
+
+    @Override
+    public Optional<Reservation> saveIfAvailable(Reservation reservation) {
+        Optional<Reservation> saved = memory.saveIfAvailable(reservation);
+        saved.ifPresent(result -> write(List.of(result),
+            rentalStarts(List.of(result))));
+        return saved;
+    }
+
+    @Override
+    public List<Optional<Reservation>> saveAllIfAvailable(
+        List<Reservation> reservations) {
+        List<Optional<Reservation>> results =
+            memory.saveAllIfAvailable(reservations);
+        List<Reservation> accepted = results.stream()
+            .flatMap(Optional::stream)
+            .toList();
+        if (!accepted.isEmpty()) {
+            write(accepted, rentalStarts(accepted));
+        }
+        return results;
+    }
+
+    @Override
+    public void replicate(List<Reservation> reservations) {
+        memory.replicate(reservations);
+        // rentals are started by the node that booked them
+        write(reservations, Set.of());
+    }
+
+    /**
+     * Append reservations already stored in memory to the journal, and
+     * remove them from memory if that fails
+     */
+    private void write(List<Reservation> reservations,
+                       Set<Long> rentalStarts) {
+        try {
+            journal.append(reservations, rentalStarts);
+        } catch (RuntimeException e) {
+            memory.remove(reservations);
+            throw e;
+        }
+    }
+
+    private static Set<Long> rentalStarts(List<Reservation> reservations) {
+        Set<Long> starts = new HashSet<>();
+        for (Reservation reservation : reservations) {
+            if (reservation.startsToday()) {
+                starts.add(reservation.id);
+            }
+        }
+        return starts;
+    }
+
+    @Override
+    public List<Reservation> pendingRentalStarts() {
+        Set<Long> pending = journal.pendingRentalStarts();
+        List<Reservation> reservations = new ArrayList<>();
+        for (Reservation reservation : contents()) {
+            if (pending.contains(reservation.id)) {
+                reservations.add(reservation);
+            }
+        }
+        return reservations;
+    }
+
+    @Override
+    public void rentalsStarted(List<Long> reservationIds) {
+        journal.appendRentalsStarted(reservationIds);
+    }
+
+    /**
+     * Archived reservations stay in the journal, the first archiving run
+     * after a restart moves them out of memory again
+     */
+    @Override
+    public int archiveEndedBefore(LocalDate day, ReservationArchive archive) {
+        synchronized (memory) {
+            return memory.archiveEndedBefore(day, archive);
+        }
+    }
+
+    /**
+     * Everything ever saved, archived or not. The lock keeps a reservation
+     * from being in neither part while it moves.
+     */
+    private List<Reservation> contents() {
+        synchronized (memory) {
+            List<Reservation> contents = new ArrayList<>(archive.findAll());
+            contents.addAll(memory.findAll());
+            return contents;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        journal.close();
+    }
+}
@@ -1,28 +1,231 @@
 package org.acme.reservation.reservation;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicLong;
+
+import io.quarkus.arc.DefaultBean;
+import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 
 @Singleton
+@DefaultBean
 public class InMemoryReservationsRepository
     implements ReservationsRepository {
 
-    private final AtomicLong ids = new AtomicLong(0);
+    private final ReservationIds ids;
     private final List<Reservation> store =
         new CopyOnWriteArrayList<>();
+    private final Map<Long, CarPartition> partitions =
+        new ConcurrentHashMap<>();
+    private final Map<String, List<Reservation>> byUser =
+        new ConcurrentHashMap<>();
+
+    public InMemoryReservationsRepository() {
+        this(new ReservationIds());
+    }
+
+    @Inject
+    public InMemoryReservationsRepository(ReservationIds ids) {
+        this.ids = ids;
+    }
 
     @Override
     public List<Reservation> findAll() {
         return Collections.unmodifiableList(store);
     }
 
+    @Override
+    public int count() {
+        return store.size();
+    }
+
+    @Override
+    public List<Reservation> findByUser(String userId) {
+        List<Reservation> reservations = byUser.get(userId);
+        return reservations == null ? Collections.emptyList() :
+            Collections.unmodifiableList(reservations);
+    }
+
+    @Override
+    public Set<Long> findReservedCarIds(LocalDate startDay,
+                                        LocalDate endDay) {
+        Set<Long> reserved = new HashSet<>();
+        partitions.forEach((carId, partition) -> {
+            if (partition.isReserved(startDay, endDay)) {
+                reserved.add(carId);
+            }
+        });
+        return reserved;
+    }
+
+    @Override
+    public Map<Long, BitSet> findOccupiedDays(LocalDate startDay,
+                                              LocalDate endDay) {
+        Map<Long, BitSet> occupied = new HashMap<>();
+        partitions.forEach((carId, partition) -> {
+            BitSet days = partition.occupancy.slice(startDay.toEpochDay(),
+                endDay.toEpochDay());
+            if (!days.isEmpty()) {
+                occupied.put(carId, days);
+            }
+        });
+        return occupied;
+    }
+
     @Override
     public Reservation save(Reservation reservation) {
-        reservation.id = ids.incrementAndGet();
+        CarPartition partition = partitionOf(reservation.carId);
+        partition.lock.lock();
+        try {
+            return insert(reservation, partition);
+        } finally {
+            partition.lock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<Reservation> saveIfAvailable(Reservation reservation) {
+        CarPartition partition = partitionOf(reservation.carId);
+        // bookings are only removed once they have ended, so a conflict
+        // seen without the lock can be rejected right away
+        if (partition.isReserved(reservation.startDay, reservation.endDay)) {
+            return Optional.empty();
+        }
+        partition.lock.lock();
+        try {
+            if (partition.isReserved(reservation.startDay,
+                reservation.endDay)) {
+                return Optional.empty();
+            }
+            return Optional.of(insert(reservation, partition));
+        } finally {
+            partition.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Optional<Reservation>> saveAllIfAvailable(
+        List<Reservation> reservations) {
+        SortedMap<Long, CarPartition> involved = new TreeMap<>();
+        for (Reservation reservation : reservations) {
+            involved.computeIfAbsent(reservation.carId, this::partitionOf);
+        }
+        List<Optional<Reservation>> results =
+            new ArrayList<>(reservations.size());
+        List<Reservation> accepted = new ArrayList<>();
+        CarPartition.lockAll(involved);
+        try {
+            for (Reservation reservation : reservations) {
+                CarPartition partition = involved.get(reservation.carId);
+                // accepted reservations are added to the partition right
+                // away, so later ones of the batch are checked against them
+                if (partition.isReserved(reservation.startDay,
+                    reservation.endDay)) {
+                    results.add(Optional.empty());
+                    continue;
+                }
+                reservation.id = ids.next();
+                partition.add(reservation);
+                accepted.add(reservation);
+                results.add(Optional.of(reservation));
+            }
+            store.addAll(accepted);
+            accepted.forEach(this::indexByUser);
+        } finally {
+            CarPartition.unlockAll(involved.values());
+        }
+        return results;
+    }
+
+    @Override
+    public void replicate(List<Reservation> reservations) {
+        for (Reservation reservation : reservations) {
+            CarPartition partition = partitionOf(reservation.carId);
+            partition.lock.lock();
+            try {
+                ids.continueAfter(reservation.id);
+                store.add(reservation);
+                partition.add(reservation);
+                indexByUser(reservation);
+            } finally {
+                partition.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Nothing is kept across restarts, the outbox still holds every rental
+     * start of this process
+     */
+    @Override
+    public List<Reservation> pendingRentalStarts() {
+        return List.of();
+    }
+
+    @Override
+    public void rentalsStarted(List<Long> reservationIds) {
+    }
+
+    @Override
+    public int archiveEndedBefore(LocalDate day, ReservationArchive archive) {
+        Set<Reservation> ended = new LinkedHashSet<>();
+        partitions.values().forEach(partition -> {
+            partition.lock.lock();
+            try {
+                ended.addAll(partition.removeEndedBefore(day,
+                    reservation -> true));
+            } finally {
+                partition.lock.unlock();
+            }
+        });
+        if (ended.isEmpty()) {
+            return 0;
+        }
+        archive.addAll(ended);
+        store.removeIf(ended::contains);
+        for (Reservation reservation : ended) {
+            if (reservation.userId != null) {
+                byUser.get(reservation.userId).remove(reservation);
+            }
+        }
+        return ended.size();
+    }
+
+    /**
+     * Store a new reservation, with the lock of its partition held. Not
+     * done by calling {@link #save(Reservation)}, which would pass the
+     * reservation through the repository's decorators a second time.
+     */
+    private Reservation insert(Reservation reservation,
+                               CarPartition partition) {
+        reservation.id = ids.next();
         store.add(reservation);
+        partition.add(reservation);
+        indexByUser(reservation);
         return reservation;
     }
+
+    private void indexByUser(Reservation reservation) {
+        if (reservation.userId != null) {
+            byUser.computeIfAbsent(reservation.userId,
+                id -> new CopyOnWriteArrayList<>()).add(reservation);
+        }
+    }
+
+    private CarPartition partitionOf(Long carId) {
+        return partitions.computeIfAbsent(carId, id -> new CarPartition());
+    }
 }
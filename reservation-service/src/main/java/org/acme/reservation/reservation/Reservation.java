@@ -19,4 +19,12 @@ public class Reservation {
         return (!(this.endDay.isBefore(startDay) ||
             this.startDay.isAfter(endDay)));
     }
+
+    /**
+     * @return true if booking this reservation has to start its rental
+     * right away
+     */
+    public boolean startsToday() {
+        return startDay.equals(LocalDate.now());
+    }
 }
@@ -0,0 +1,103 @@
+package org.acme.reservation.reservation;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.inject.Singleton;
+
+/**
+ * Cold store for reservations that have ended. They are kept column by
+ * column in primitive arrays: epoch days as ints and users as indexes into
+ * a table of interned user ids, about 32 bytes per reservation instead of
+ * a {@link Reservation} with two {@link LocalDate}s. Reservations are only
+ * materialized again when they are read.
+ */
+@Singleton
+public class ReservationArchive {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Map<String, Integer> userIndex = new HashMap<>();
+    private final List<String> users = new ArrayList<>();
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private long[] carIds = new long[INITIAL_CAPACITY];
+    private int[] startDays = new int[INITIAL_CAPACITY];
+    private int[] endDays = new int[INITIAL_CAPACITY];
+    private int[] userOf = new int[INITIAL_CAPACITY];
+    private int size;
+
+    public synchronized void addAll(Collection<Reservation> reservations) {
+        ensureCapacity(size + reservations.size());
+        for (Reservation reservation : reservations) {
+            ids[size] = reservation.id;
+            carIds[size] = reservation.carId;
+            startDays[size] = (int) reservation.startDay.toEpochDay();
+            endDays[size] = (int) reservation.endDay.toEpochDay();
+            userOf[size] = reservation.userId == null ? -1 :
+                userIndex.computeIfAbsent(reservation.userId, user -> {
+                    users.add(user);
+                    return users.size() - 1;
+                });
+            size++;
+        }
+    }
+
+    public synchronized List<Reservation> findAll() {
+        List<Reservation> reservations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            reservations.add(reservationAt(i));
+        }
+        return reservations;
+    }
+
+    /**
+     * Find the archived reservations of the given user by scanning the
+     * user column only
+     */
+    public synchronized List<Reservation> findByUser(String userId) {
+        Integer user = userIndex.get(userId);
+        if (user == null) {
+            return Collections.emptyList();
+        }
+        List<Reservation> reservations = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (userOf[i] == user) {
+                reservations.add(reservationAt(i));
+            }
+        }
+        return reservations;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private Reservation reservationAt(int i) {
+        Reservation reservation = new Reservation();
+        reservation.id = ids[i];
+        reservation.carId = carIds[i];
+        reservation.userId = userOf[i] < 0 ? null : users.get(userOf[i]);
+        reservation.startDay = LocalDate.ofEpochDay(startDays[i]);
+        reservation.endDay = LocalDate.ofEpochDay(endDays[i]);
+        return reservation;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int grown = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, grown);
+        carIds = Arrays.copyOf(carIds, grown);
+        startDays = Arrays.copyOf(startDays, grown);
+        endDays = Arrays.copyOf(endDays, grown);
+        userOf = Arrays.copyOf(userOf, grown);
+    }
+}
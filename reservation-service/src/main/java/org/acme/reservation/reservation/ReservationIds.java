@@ -0,0 +1,43 @@
+package org.acme.reservation.reservation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sequence of reservation ids. Every id handed out is congruent to
+ * {@code offset} modulo {@code stride}, so nodes that each own one residue
+ * never hand out the same id. A single node uses a stride of one and
+ * counts 1, 2, 3, ...
+ */
+public class ReservationIds {
+
+    private final long stride;
+    private final long offset;
+    private final AtomicLong last = new AtomicLong(0);
+
+    public ReservationIds() {
+        this(1, 0);
+    }
+
+    public ReservationIds(int stride, int offset) {
+        if (stride < 1 || offset < 0 || offset >= stride) {
+            throw new IllegalArgumentException("Invalid id residue "
+                + offset + " of " + stride);
+        }
+        this.stride = stride;
+        this.offset = offset;
+    }
+
+    public long next() {
+        // the largest id of this residue not after the last one, plus one
+        // step
+        return last.updateAndGet(id ->
+            id - Math.floorMod(id - offset, stride) + stride);
+    }
+
+    /**
+     * Make sure ids handed out from now on are larger than the given one
+     */
+    public void continueAfter(long id) {
+        last.accumulateAndGet(id, Math::max);
+    }
+}
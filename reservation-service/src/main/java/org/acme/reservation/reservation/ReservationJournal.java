@@ -0,0 +1,526 @@
+package org.acme.reservation.reservation;
+
+import io.quarkus.logging.Log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, checksummed binary log of reservations plus a compact
+ * snapshot of everything logged before it.
+ * <p>
+ * A log record is {@code [payload length][CRC32C of payload][payload]}.
+ * It holds a reservation, flagged if its rental still has to be started,
+ * or the confirmation that such a rental was started. The reservations
+ * whose rental start is not confirmed yet are kept in the snapshot too.
+ * Recovery stops at the first record that is torn or fails its checksum,
+ * which is where the previous process died, and cuts the log there.
+ * <p>
+ * A batch that cannot be written or forced is cut off the log again, so
+ * later batches follow the last intact record instead of a torn one, and
+ * a failed batch does not come back after a restart. If the log cannot be
+ * cut either, the journal fails every later append.
+ * <p>
+ * Snapshots are taken from what the journal wrote itself, never from
+ * reservations whose records may still fail.
+ * <p>
+ * With group commit, appends are queued and a single writer thread
+ * writes every queued record and forces the log to disk once per batch,
+ * so concurrent writers share one fsync. Without it every append is
+ * written and forced on its own.
+ */
+class ReservationJournal implements AutoCloseable {
+
+    private static final String LOG = "reservations.log";
+    private static final String SNAPSHOT = "reservations.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x52535632;
+    private static final byte RESERVATION = 0;
+    private static final byte RENTAL_STARTED = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int SNAPSHOT_RECORD_BYTES = 28;
+    private static final int MAX_BATCH = 1024;
+    private static final Pending STOP = new Pending(new byte[0][],
+        List.of(), Set.of(), List.of());
+
+    private final Path directory;
+    private final boolean groupCommit;
+    private final int snapshotEvery;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Set<Long> pendingRentals = ConcurrentHashMap.newKeySet();
+    /**
+     * Every reservation on disk, the contents of the next snapshot. Only
+     * changed by the thread that writes the log.
+     */
+    private final Map<Long, Reservation> written = new LinkedHashMap<>();
+
+    private FileChannel log;
+    private Thread writer;
+    private int appendedSinceSnapshot;
+    private long lastId;
+    private volatile boolean closed;
+    private volatile IOException failed;
+
+    ReservationJournal(Path directory, boolean groupCommit,
+                       int snapshotEvery) {
+        this.directory = directory;
+        this.groupCommit = groupCommit;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    /**
+     * Read the snapshot and the log written after it, and open the log for
+     * appending. Records already contained in the snapshot are skipped.
+     * @return the recovered reservations, in the order they were logged
+     */
+    Collection<Reservation> recover() {
+        try {
+            Files.createDirectories(directory);
+            readSnapshot(written);
+            long validLength = readLog(written);
+            log = FileChannel.open(directory.resolve(LOG),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            log.truncate(validLength);
+            log.position(validLength);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return List.copyOf(written.values());
+    }
+
+    /**
+     * @return ids of the reservations logged with a rental start that was
+     * not confirmed since
+     */
+    Set<Long> pendingRentalStarts() {
+        return Set.copyOf(pendingRentals);
+    }
+
+    /**
+     * @return the largest reservation id ever handed out, as recovered
+     */
+    long lastId() {
+        return lastId;
+    }
+
+    /**
+     * Start accepting appends
+     */
+    void start() {
+        if (groupCommit) {
+            writer = new Thread(this::writeLoop, "reservation-journal");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Append the reservations and wait until they are on disk
+     * @param rentalStarts ids of the reservations whose rental has to be
+     * started, recorded in the same records as the reservations
+     */
+    void append(List<Reservation> reservations, Set<Long> rentalStarts) {
+        byte[][] records = new byte[reservations.size()][];
+        for (int i = 0; i < records.length; i++) {
+            Reservation reservation = reservations.get(i);
+            records[i] = encode(reservation,
+                rentalStarts.contains(reservation.id));
+        }
+        write(new Pending(records, reservations, rentalStarts, List.of()));
+    }
+
+    /**
+     * Record that the rentals of these reservations were started, and wait
+     * until that is on disk
+     */
+    void appendRentalsStarted(List<Long> reservationIds) {
+        byte[][] records = new byte[reservationIds.size()][];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = encodeRentalStarted(reservationIds.get(i));
+        }
+        write(new Pending(records, List.of(), Set.of(), reservationIds));
+    }
+
+    private void write(Pending pending) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        if (failed != null) {
+            throw new IllegalStateException("Journal failed", failed);
+        }
+        if (groupCommit) {
+            queue.add(pending);
+            // queued after close() failed what the writer left behind
+            if (closed && queue.remove(pending)) {
+                pending.done.completeExceptionally(
+                    new IllegalStateException("Journal is closed"));
+            }
+            pending.done.join();
+        } else {
+            synchronized (this) {
+                try {
+                    writeBatch(List.of(pending));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                maybeSnapshot();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (writer != null) {
+                queue.add(STOP);
+                writer.join();
+                queue.forEach(pending -> pending.done.completeExceptionally(
+                    new IllegalStateException("Journal is closed")));
+            }
+            synchronized (this) {
+                log.force(false);
+                log.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            stopping = batch.remove(STOP);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            try {
+                writeBatch(batch);
+                batch.forEach(pending -> pending.done.complete(null));
+                maybeSnapshot();
+            } catch (IOException | RuntimeException e) {
+                batch.forEach(pending -> pending.done.completeExceptionally(
+                    failed == null ? e :
+                        new IllegalStateException("Journal failed", e)));
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write and force the batch, and cut it off the log again if that
+     * fails. Only then is it taken into the written state.
+     */
+    private void writeBatch(List<Pending> batch) throws IOException {
+        if (failed != null) {
+            throw failed;
+        }
+        int size = 0;
+        for (Pending pending : batch) {
+            for (byte[] record : pending.records) {
+                size += record.length;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Pending pending : batch) {
+            for (byte[] record : pending.records) {
+                buffer.put(record);
+            }
+        }
+        buffer.flip();
+        long start = log.position();
+        try {
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(false);
+        } catch (IOException | RuntimeException e) {
+            // the batch may be torn, or whole but not known to be on disk
+            try {
+                log.truncate(start);
+                log.position(start);
+                log.force(true);
+            } catch (IOException reset) {
+                failed = reset;
+                e.addSuppressed(reset);
+            }
+            throw e;
+        }
+        for (Pending pending : batch) {
+            appendedSinceSnapshot += pending.records.length;
+            for (Reservation reservation : pending.reservations) {
+                written.put(reservation.id, reservation);
+            }
+            pendingRentals.addAll(pending.rentalStarts);
+            pendingRentals.removeAll(pending.rentalsStarted);
+        }
+    }
+
+    /**
+     * Only called by the thread that writes the log, so no record can be
+     * written between taking the contents and cutting the log. A failed
+     * snapshot leaves the log as it was and is tried again later.
+     */
+    private void maybeSnapshot() {
+        if (appendedSinceSnapshot < snapshotEvery) {
+            return;
+        }
+        try {
+            writeSnapshot(new ArrayList<>(written.values()),
+                pendingRentalStarts());
+            log.truncate(0);
+            log.position(0);
+            log.force(true);
+            appendedSinceSnapshot = 0;
+        } catch (IOException e) {
+            Log.warn("Could not snapshot the reservations journal", e);
+        }
+    }
+
+    private void writeSnapshot(List<Reservation> reservations,
+                               Set<Long> rentalStarts) throws IOException {
+        // users are written once and referenced by index
+        Map<String, Integer> userIndex = new HashMap<>();
+        List<byte[]> users = new ArrayList<>();
+        long lastId = 0;
+        for (Reservation reservation : reservations) {
+            if (reservation.userId != null &&
+                !userIndex.containsKey(reservation.userId)) {
+                userIndex.put(reservation.userId, users.size());
+                users.add(reservation.userId
+                    .getBytes(StandardCharsets.UTF_8));
+            }
+            lastId = Math.max(lastId, reservation.id);
+        }
+        int usersBytes = 0;
+        for (byte[] user : users) {
+            usersBytes += 2 + user.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 8 + 4 + usersBytes + 4
+            + reservations.size() * SNAPSHOT_RECORD_BYTES
+            + 4 + rentalStarts.size() * 8 + 4);
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putLong(lastId);
+        buffer.putInt(users.size());
+        for (byte[] user : users) {
+            buffer.putShort((short) user.length);
+            buffer.put(user);
+        }
+        buffer.putInt(reservations.size());
+        for (Reservation reservation : reservations) {
+            buffer.putLong(reservation.id);
+            buffer.putLong(reservation.carId);
+            buffer.putInt((int) reservation.startDay.toEpochDay());
+            buffer.putInt((int) reservation.endDay.toEpochDay());
+            buffer.putInt(reservation.userId == null ? -1 :
+                userIndex.get(reservation.userId));
+        }
+        buffer.putInt(rentalStarts.size());
+        for (long id : rentalStarts) {
+            buffer.putLong(id);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT),
+            StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void readSnapshot(Map<Long, Reservation> recovered)
+        throws IOException {
+        Path file = directory.resolve(SNAPSHOT);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int length = buffer.limit() - 4;
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.duplicate().limit(length));
+            if (buffer.getInt(0) != SNAPSHOT_MAGIC ||
+                buffer.getInt(length) != (int) crc.getValue()) {
+                throw new IllegalStateException(
+                    "Corrupt reservations snapshot " + file);
+            }
+            buffer.position(4);
+            lastId = Math.max(lastId, buffer.getLong());
+            String[] users = new String[buffer.getInt()];
+            for (int i = 0; i < users.length; i++) {
+                byte[] user = new byte[buffer.getShort()];
+                buffer.get(user);
+                users[i] = new String(user, StandardCharsets.UTF_8);
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                Reservation reservation = new Reservation();
+                reservation.id = buffer.getLong();
+                reservation.carId = buffer.getLong();
+                reservation.startDay = LocalDate.ofEpochDay(buffer.getInt());
+                reservation.endDay = LocalDate.ofEpochDay(buffer.getInt());
+                int user = buffer.getInt();
+                reservation.userId = user < 0 ? null : users[user];
+                recovered.put(reservation.id, reservation);
+            }
+            int rentalStarts = buffer.getInt();
+            for (int i = 0; i < rentalStarts; i++) {
+                pendingRentals.add(buffer.getLong());
+            }
+        }
+    }
+
+    /**
+     * @return the length of the log up to the last intact record
+     */
+    private long readLog(Map<Long, Reservation> recovered)
+        throws IOException {
+        Path file = directory.resolve(LOG);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        CRC32C crc = new CRC32C();
+        while (buffer.remaining() >= HEADER_BYTES) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                Log.warnf("Dropping torn reservation log record at %d", start);
+                return start;
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                Log.warnf("Dropping corrupt reservation log record at %d",
+                    start);
+                return start;
+            }
+            if (buffer.get() == RENTAL_STARTED) {
+                pendingRentals.remove(buffer.getLong());
+                continue;
+            }
+            boolean rentalStart = buffer.get() != 0;
+            Reservation reservation = decode(buffer);
+            recovered.putIfAbsent(reservation.id, reservation);
+            if (rentalStart) {
+                pendingRentals.add(reservation.id);
+            }
+            lastId = Math.max(lastId, reservation.id);
+        }
+        return buffer.position();
+    }
+
+    private static byte[] encode(Reservation reservation,
+                                 boolean rentalStart) {
+        byte[] user = reservation.userId == null ? null :
+            reservation.userId.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 1 + 8 + 8 + 4 + 4 + 2 +
+            (user == null ? 0 : user.length);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + length);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put(RESERVATION);
+        buffer.put((byte) (rentalStart ? 1 : 0));
+        buffer.putLong(reservation.id);
+        buffer.putLong(reservation.carId);
+        buffer.putInt((int) reservation.startDay.toEpochDay());
+        buffer.putInt((int) reservation.endDay.toEpochDay());
+        if (user == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) user.length);
+            buffer.put(user);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), HEADER_BYTES, length);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static byte[] encodeRentalStarted(long reservationId) {
+        int length = 1 + 8;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + length);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put(RENTAL_STARTED);
+        buffer.putLong(reservationId);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), HEADER_BYTES, length);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static Reservation decode(ByteBuffer buffer) {
+        Reservation reservation = new Reservation();
+        reservation.id = buffer.getLong();
+        reservation.carId = buffer.getLong();
+        reservation.startDay = LocalDate.ofEpochDay(buffer.getInt());
+        reservation.endDay = LocalDate.ofEpochDay(buffer.getInt());
+        short userLength = buffer.getShort();
+        if (userLength >= 0) {
+            byte[] user = new byte[userLength];
+            buffer.get(user);
+            reservation.userId = new String(user, StandardCharsets.UTF_8);
+        }
+        return reservation;
+    }
+
+    private static final class Pending {
+
+        final byte[][] records;
+        final List<Reservation> reservations;
+        final Set<Long> rentalStarts;
+        final List<Long> rentalsStarted;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(byte[][] records, List<Reservation> reservations,
+                Set<Long> rentalStarts, List<Long> rentalsStarted) {
+            this.records = records;
+            this.reservations = reservations;
+            this.rentalStarts = rentalStarts;
+            this.rentalsStarted = rentalsStarted;
+        }
+    }
+}
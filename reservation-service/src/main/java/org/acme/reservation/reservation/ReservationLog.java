@@ -0,0 +1,99 @@
+package org.acme.reservation.reservation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Append-only list of reservations backed by an immutable linked list
+ * whose head is swapped with a single CAS. Appends are O(1) and
+ * lock-free, and a snapshot only needs to read the head.
+ */
+class ReservationLog {
+
+    private final AtomicReference<Node> head = new AtomicReference<>();
+
+    void append(Reservation reservation) {
+        Node current;
+        Node node;
+        do {
+            current = head.get();
+            node = new Node(reservation, current);
+        } while (!head.compareAndSet(current, node));
+    }
+
+    /**
+     * Append all reservations at once, readers see either none or all
+     */
+    void appendAll(List<Reservation> reservations) {
+        if (reservations.isEmpty()) {
+            return;
+        }
+        Node current;
+        Node node;
+        do {
+            current = head.get();
+            node = current;
+            for (Reservation reservation : reservations) {
+                node = new Node(reservation, node);
+            }
+        } while (!head.compareAndSet(current, node));
+    }
+
+    /**
+     * Drop the given reservations. The remaining ones are linked into a
+     * new list that replaces the current one with a CAS, which is retried
+     * if a reservation was appended meanwhile.
+     */
+    void removeAll(Set<Reservation> reservations) {
+        Node current;
+        Node rebuilt;
+        do {
+            current = head.get();
+            rebuilt = null;
+            for (Reservation reservation : snapshot(current)) {
+                if (!reservations.contains(reservation)) {
+                    rebuilt = new Node(reservation, rebuilt);
+                }
+            }
+        } while (!head.compareAndSet(current, rebuilt));
+    }
+
+    int size() {
+        Node current = head.get();
+        return current == null ? 0 : current.size;
+    }
+
+    /**
+     * @return the reservations appended so far, in append order
+     */
+    List<Reservation> snapshot() {
+        return snapshot(head.get());
+    }
+
+    private static List<Reservation> snapshot(Node current) {
+        if (current == null) {
+            return Collections.emptyList();
+        }
+        Reservation[] snapshot = new Reservation[current.size];
+        for (Node node = current; node != null; node = node.next) {
+            snapshot[node.size - 1] = node.reservation;
+        }
+        return Collections.unmodifiableList(Arrays.asList(snapshot));
+    }
+
+    private static final class Node {
+
+        final Reservation reservation;
+        final Node next;
+        final int size;
+
+        Node(Reservation reservation, Node next) {
+            this.reservation = reservation;
+            this.next = next;
+            this.size = next == null ? 1 : next.size + 1;
+        }
+    }
+}
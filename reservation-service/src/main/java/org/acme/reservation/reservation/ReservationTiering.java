@@ -0,0 +1,47 @@
+package org.acme.reservation.reservation;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Periodically moves reservations that have ended out of the repository
+ * into the {@link ReservationArchive}, so availability checks and
+ * listings only pay for current and future bookings
+ */
+@ApplicationScoped
+public class ReservationTiering {
+
+    private final ReservationsRepository repository;
+    private final ReservationArchive archive;
+    private final Counter archived;
+
+    public ReservationTiering(ReservationsRepository repository,
+                              ReservationArchive archive,
+                              MeterRegistry registry) {
+        this.repository = repository;
+        this.archive = archive;
+        this.archived = registry.counter("reservation.archived");
+        registry.gauge("reservation.archive.size", List.of(), archive,
+            ReservationArchive::size);
+        registry.gauge("reservation.repository.size", List.of(), repository,
+            ReservationsRepository::count);
+    }
+
+    @Scheduled(every = "${reservation.tiering.interval:1h}",
+        concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void archiveEnded() {
+        long started = System.nanoTime();
+        int moved = repository.archiveEndedBefore(LocalDate.now(), archive);
+        if (moved > 0) {
+            archived.increment(moved);
+            Log.infof("Archived %d ended reservations in %d ms", moved,
+                (System.nanoTime() - started) / 1_000_000);
+        }
+    }
+}
@@ -1,10 +1,86 @@
 package org.acme.reservation.reservation;
 
+import java.time.LocalDate;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 public interface ReservationsRepository {
 
     List<Reservation> findAll();
 
+    /**
+     * @return the number of reservations {@link #findAll()} would return,
+     * without collecting them
+     */
+    int count();
+
+    /**
+     * Find the reservations made by the given user, without looking at
+     * the reservations of other users
+     */
+    List<Reservation> findByUser(String userId);
+
+    /**
+     * Find the cars that have at least one reservation overlapping the
+     * given duration
+     * @return ids of the cars that are not available in that duration
+     */
+    Set<Long> findReservedCarIds(LocalDate startDay, LocalDate endDay);
+
+    /**
+     * Find the days on which cars are reserved in the given duration
+     * @return per car with at least one such day, a bit set whose bit
+     * {@code i} is set if the car is reserved on {@code startDay + i}
+     */
+    Map<Long, BitSet> findOccupiedDays(LocalDate startDay, LocalDate endDay);
+
     Reservation save(Reservation reservation);
+
+    /**
+     * Save the reservation unless its car already has a reservation
+     * overlapping the same duration. The check and the save are atomic
+     * with respect to other reservations of the same car.
+     * @return the saved reservation, or empty if the car is not available
+     */
+    Optional<Reservation> saveIfAvailable(Reservation reservation);
+
+    /**
+     * Save every reservation that overlaps neither an existing reservation
+     * nor an earlier reservation of the same batch, as one operation.
+     * @return for each reservation, in order, the saved reservation or
+     * empty if its car is not available
+     */
+    List<Optional<Reservation>> saveAllIfAvailable(
+        List<Reservation> reservations);
+
+    /**
+     * Store reservations that already have ids, e.g. as received from the
+     * leader of a replica, without checking them for conflicts. Ids handed
+     * out afterwards are larger than theirs.
+     */
+    void replicate(List<Reservation> reservations);
+
+    /**
+     * Move every reservation that ended before the given day into the
+     * archive. Afterwards the finders no longer return them, and the days
+     * they booked are free again unless another reservation books them.
+     * @return the number of reservations moved
+     */
+    int archiveEndedBefore(LocalDate day, ReservationArchive archive);
+
+    /**
+     * @return the saved reservations that {@link Reservation#startsToday()}
+     * and whose rental was not confirmed with {@link #rentalsStarted(List)}
+     * yet, e.g. after a restart; empty for repositories that do not
+     * survive one
+     */
+    List<Reservation> pendingRentalStarts();
+
+    /**
+     * Record that the rentals of these reservations were started
+     */
+    void rentalsStarted(List<Long> reservationIds);
 }
@@ -0,0 +1,105 @@
+package org.acme.reservation.rest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for availability requests, so a flood of them cannot
+ * take the capacity bookings need. Bookings never pass through here.
+ * <p>
+ * At most {@code max-concurrent} availability requests run at once. When
+ * their moving average latency exceeds the {@code latency-budget}, only
+ * one is let through at a time until the average recovers. A request that
+ * is not admitted is shed: it gets a stale answer if one can be given
+ * without asking inventory-service, or a 503 with a Retry-After header.
+ */
+@Singleton
+public class AvailabilityAdmission {
+
+    /**
+     * Weight of the newest latency sample in the moving average, as a
+     * power of two
+     */
+    private static final int AVERAGE_SHIFT = 3;
+
+    private final int maxConcurrent;
+    private final long latencyBudgetNanos;
+    private final long retryAfterSeconds;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong averageLatencyNanos = new AtomicLong();
+    private final Counter admitted;
+    private final Counter servedStale;
+    private final Counter rejected;
+
+    public AvailabilityAdmission(
+        MeterRegistry registry,
+        @ConfigProperty(name = "reservation.admission.max-concurrent",
+            defaultValue = "64") int maxConcurrent,
+        @ConfigProperty(name = "reservation.admission.latency-budget",
+            defaultValue = "500ms") Duration latencyBudget,
+        @ConfigProperty(name = "reservation.admission.retry-after",
+            defaultValue = "1s") Duration retryAfter) {
+        this.maxConcurrent = maxConcurrent;
+        this.latencyBudgetNanos = latencyBudget.toNanos();
+        this.retryAfterSeconds = Math.max(1, retryAfter.toSeconds());
+        this.admitted = registry.counter("reservation.admission",
+            "decision", "admitted");
+        this.servedStale = registry.counter("reservation.admission",
+            "decision", "stale");
+        this.rejected = registry.counter("reservation.admission",
+            "decision", "rejected");
+        registry.gauge("reservation.admission.in-flight", List.of(),
+            inFlight);
+        registry.gauge("reservation.admission.latency", List.of(),
+            averageLatencyNanos, average -> average.get() / 1e9);
+    }
+
+    /**
+     * Try to start an availability request. If it is admitted, the caller
+     * has to call {@link #release(long)} once it is done.
+     * @return true if the request may run
+     */
+    public boolean tryAdmit() {
+        int limit = averageLatencyNanos.get() > latencyBudgetNanos ?
+            1 : maxConcurrent;
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        admitted.increment();
+        return true;
+    }
+
+    /**
+     * @param startedAt {@link System#nanoTime()} when the admitted
+     * request started
+     */
+    public void release(long startedAt) {
+        inFlight.decrementAndGet();
+        long latency = System.nanoTime() - startedAt;
+        averageLatencyNanos.accumulateAndGet(latency, (average, sample) ->
+            average + ((sample - average) >> AVERAGE_SHIFT));
+    }
+
+    public void shedWithStaleAnswer() {
+        servedStale.increment();
+    }
+
+    /**
+     * @return seconds the client should wait before retrying
+     */
+    public long reject() {
+        rejected.increment();
+        return retryAfterSeconds;
+    }
+}
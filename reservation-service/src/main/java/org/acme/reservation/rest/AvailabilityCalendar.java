@@ -0,0 +1,34 @@
+package org.acme.reservation.rest;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Free days of every car in a date range, and the number of free cars on
+ * each day of that range
+ */
+public class AvailabilityCalendar {
+
+    public LocalDate startDate;
+    public LocalDate endDate;
+    public List<CarDays> cars = new ArrayList<>();
+    /**
+     * Element {@code i} is the number of free cars on startDate + i
+     */
+    public int[] freeCarsPerDay;
+
+    public static class CarDays {
+
+        public Long carId;
+        public List<LocalDate> freeDays;
+
+        public CarDays() {
+        }
+
+        public CarDays(Long carId, List<LocalDate> freeDays) {
+            this.carId = carId;
+            this.freeDays = freeDays;
+        }
+    }
+}
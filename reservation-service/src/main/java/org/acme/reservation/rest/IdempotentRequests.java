@@ -0,0 +1,149 @@
+package org.acme.reservation.rest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.inject.Singleton;
+import jakarta.ws.rs.ClientErrorException;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Results of requests sent with an idempotency key, so a retried request
+ * gets the original result instead of being executed again.
+ * <p>
+ * The first request with a key claims it with a single
+ * {@code putIfAbsent}; concurrent duplicates wait for its result. Keys
+ * are kept in insertion order and dropped once they are older than the
+ * ttl or the queue holds more than {@code max-keys}, both checked at the
+ * head of the queue, so every call costs O(1) amortized.
+ * <p>
+ * Rejections ({@link ClientErrorException}) are replayed like results,
+ * other failures release the key so the request can be retried. A
+ * released key stays queued, and counts towards {@code max-keys}, until
+ * it reaches the head, so failing requests cannot grow the queue either.
+ */
+@Singleton
+public class IdempotentRequests {
+
+    private static final int UNPROCESSABLE_ENTITY = 422;
+
+    private final ConcurrentMap<String, Entry> entries =
+        new ConcurrentHashMap<>();
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final int maxKeys;
+    private final long ttlNanos;
+    private final Counter executed;
+    private final Counter replayed;
+
+    public IdempotentRequests(
+        MeterRegistry registry,
+        @ConfigProperty(name = "reservation.idempotency.max-keys",
+            defaultValue = "100000") int maxKeys,
+        @ConfigProperty(name = "reservation.idempotency.ttl",
+            defaultValue = "24h") Duration ttl) {
+        this.maxKeys = maxKeys;
+        this.ttlNanos = ttl.toNanos();
+        this.executed = registry.counter("reservation.idempotency.requests",
+            "result", "executed");
+        this.replayed = registry.counter("reservation.idempotency.requests",
+            "result", "replayed");
+        registry.gauge("reservation.idempotency.keys", queued);
+    }
+
+    /**
+     * Run the action unless a request with the same key ran before
+     * @param request what identifies the request besides its key; reusing
+     * a key for a different request is rejected with 422
+     * @return the result of the first request with this key
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Object request, Supplier<T> action) {
+        evict();
+        Entry claimed = new Entry(key, request, System.nanoTime());
+        while (true) {
+            Entry existing = entries.putIfAbsent(key, claimed);
+            if (existing == null) {
+                order.add(claimed);
+                queued.incrementAndGet();
+                evict();
+                executed.increment();
+                return (T) run(claimed, action);
+            }
+            if (isExpired(existing, System.nanoTime())) {
+                entries.remove(key, existing);
+                continue;
+            }
+            if (!existing.request.equals(request)) {
+                throw new ClientErrorException("Idempotency key " + key
+                    + " was already used for a different request",
+                    UNPROCESSABLE_ENTITY);
+            }
+            replayed.increment();
+            try {
+                return (T) existing.result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw (RuntimeException) e.getCause();
+            }
+        }
+    }
+
+    private Object run(Entry claimed, Supplier<?> action) {
+        try {
+            Object result = action.get();
+            claimed.result.complete(result);
+            return result;
+        } catch (ClientErrorException e) {
+            claimed.result.completeExceptionally(e);
+            throw e;
+        } catch (Throwable e) {
+            // released on errors too, or duplicates would wait forever
+            entries.remove(claimed.key, claimed);
+            claimed.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        Entry oldest;
+        while ((oldest = order.peek()) != null &&
+            (isExpired(oldest, now) || queued.get() > maxKeys)) {
+            oldest = order.poll();
+            if (oldest != null) {
+                queued.decrementAndGet();
+                entries.remove(oldest.key, oldest);
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.createdAt > ttlNanos;
+    }
+
+    private static final class Entry {
+
+        final String key;
+        final Object request;
+        final long createdAt;
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        Entry(String key, Object request, long createdAt) {
+            this.key = key;
+            this.request = request;
+            this.createdAt = createdAt;
+        }
+    }
+}
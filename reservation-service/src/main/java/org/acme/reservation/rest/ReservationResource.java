@@ -1,96 +1,655 @@
 package org.acme.reservation.rest;
 
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 
+import io.micrometer.core.annotation.Timed;
 import io.quarkus.logging.Log;
-import io.smallrye.graphql.client.GraphQLClient;
+import io.smallrye.common.annotation.NonBlocking;
+import io.smallrye.common.annotation.RunOnVirtualThread;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.ClientErrorException;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.acme.reservation.availability.FreeCarsView;
 import org.acme.reservation.inventory.Car;
-import org.acme.reservation.inventory.GraphQLInventoryClient;
 import org.acme.reservation.inventory.InventoryClient;
-import org.acme.reservation.rental.Rental;
-import org.acme.reservation.rental.RentalClient;
+import org.acme.reservation.rental.RentalOutbox;
+import org.acme.reservation.replication.Replica;
 import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationArchive;
 import org.acme.reservation.reservation.ReservationsRepository;
-import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.acme.reservation.shard.PeerAuthentication;
+import org.acme.reservation.shard.ShardClient;
+import org.acme.reservation.shard.Shards;
+import org.jboss.resteasy.reactive.RestHeader;
 import org.jboss.resteasy.reactive.RestQuery;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+import org.jboss.resteasy.reactive.common.util.RestMediaType;
 
-
+/**
+ * Each endpoint picks its own execution model. Reads that only need the
+ * inventory and in-memory indexes return {@link Uni} or {@link Multi} and
+ * run on the event loop; bookings, which may wait for the reservation
+ * journal, run on virtual threads.
+ * <p>
+ * With several {@link Shards}, bookings are sent to the node owning the
+ * car, and reads are answered by every node for the cars it owns and
+ * merged. The {@code local} endpoints are those per-node answers, and
+ * only other nodes may call them, see {@link PeerAuthentication}.
+ * <p>
+ * A {@link Replica} forwards bookings to its leader and answers reads
+ * only while it is not too far behind.
+ */
 @Path("reservation")
 @Produces(MediaType.APPLICATION_JSON)
 public class ReservationResource {
 
+    static final int MAX_CALENDAR_DAYS = 366;
+
     private final ReservationsRepository reservationsRepository;
     private final InventoryClient inventoryClient;
-    private final RentalClient rentalClient;
+    private final RentalOutbox rentalOutbox;
+    private final FreeCarsView freeCarsView;
+    private final ReservationArchive archive;
+    private final IdempotentRequests idempotentRequests;
+    private final AvailabilityAdmission admission;
+    private final Shards shards;
+    private final Replica replica;
 
     @Inject
     jakarta.ws.rs.core.SecurityContext context;
 
     public ReservationResource(ReservationsRepository reservations,
-                               @GraphQLClient("inventory") GraphQLInventoryClient inventoryClient,
-                               @RestClient RentalClient rentalClient) {
+                               InventoryClient inventoryClient,
+                               RentalOutbox rentalOutbox,
+                               FreeCarsView freeCarsView,
+                               ReservationArchive archive,
+                               IdempotentRequests idempotentRequests,
+                               AvailabilityAdmission admission,
+                               Shards shards,
+                               Replica replica) {
         this.reservationsRepository = reservations;
         this.inventoryClient = inventoryClient;
-        this.rentalClient = rentalClient;
+        this.rentalOutbox = rentalOutbox;
+        this.freeCarsView = freeCarsView;
+        this.archive = archive;
+        this.idempotentRequests = idempotentRequests;
+        this.admission = admission;
+        this.shards = shards;
+        this.replica = replica;
     }
 
+    /**
+     * Book a car. A request sent again with the same
+     * {@code Idempotency-Key} header returns the result of the first one
+     * instead of booking again.
+     */
     @Consumes(MediaType.APPLICATION_JSON)
+    @Timed(value = "endpoint.latency", histogram = true)
     @POST
-    public Reservation make(Reservation reservation) {
-        reservation.userId = context.getUserPrincipal() != null ?
-            context.getUserPrincipal().getName() : "anonymous";
-        Reservation result = reservationsRepository.save(reservation);
-        if (reservation.startDay.equals(LocalDate.now())) {
-            Rental rental = rentalClient.start(reservation.userId, result.id);
-            Log.info("Successfully started rental " + rental);
+    @RunOnVirtualThread
+    public Reservation make(Reservation reservation,
+                            @RestHeader("Idempotency-Key") String key) {
+        reservation.userId = currentUserId();
+        ShardClient owner = shards.client(shards.ownerOf(reservation.carId));
+        if (owner == null) {
+            return makeOwned(reservation, key);
+        }
+        return forward(owner, reservation, key);
+    }
+
+    /**
+     * Book a car owned by this node on behalf of another one
+     * @throws BadRequestException if the car belongs to another node
+     */
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Timed(value = "endpoint.latency", histogram = true)
+    @POST
+    @Path("local")
+    @RunOnVirtualThread
+    public Reservation makeLocal(Reservation reservation,
+                                 @RestQuery String userId,
+                                 @RestHeader("Idempotency-Key") String key) {
+        checkOwned(reservation);
+        reservation.userId = userId;
+        return makeOwned(reservation, key);
+    }
+
+    /**
+     * Make many reservations with a single request. Each one is checked
+     * against the existing reservations and the ones before it in the
+     * list, and all that do not conflict are saved together.
+     * <p>
+     * With sharding, every node saves the part of the batch it owns. A
+     * node that fails does not fail the others' parts, which may already
+     * be saved: its reservations are answered as
+     * {@link ReservationResult.Status#UNAVAILABLE}.
+     */
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Timed(value = "endpoint.latency", histogram = true)
+    @POST
+    @Path("batch")
+    @RunOnVirtualThread
+    public List<ReservationResult> makeAll(List<Reservation> reservations) {
+        String userId = currentUserId();
+        for (Reservation reservation : reservations) {
+            reservation.userId = userId;
+        }
+        if (!shards.enabled()) {
+            return makeAllOwned(reservations, userId);
+        }
+        // split the batch by owner, keeping the position of every
+        // reservation in the request
+        List<List<Integer>> positions = new ArrayList<>(shards.size());
+        List<List<Reservation>> parts = new ArrayList<>(shards.size());
+        for (int node = 0; node < shards.size(); node++) {
+            positions.add(new ArrayList<>());
+            parts.add(new ArrayList<>());
+        }
+        for (int i = 0; i < reservations.size(); i++) {
+            int owner = shards.ownerOf(reservations.get(i).carId);
+            positions.get(owner).add(i);
+            parts.get(owner).add(reservations.get(i));
+        }
+        List<Uni<List<ReservationResult>>> remote = new ArrayList<>();
+        List<Integer> remoteNodes = new ArrayList<>();
+        for (int node = 0; node < shards.size(); node++) {
+            if (node != shards.self() && !parts.get(node).isEmpty()) {
+                ShardClient client = shards.client(node);
+                List<Reservation> part = parts.get(node);
+                remote.add(Uni.createFrom()
+                    .deferred(() -> client.makeAll(userId, part))
+                    .onFailure().recoverWithItem(failure ->
+                        unavailable(part, failure)));
+                remoteNodes.add(node);
+            }
+        }
+        ReservationResult[] results =
+            new ReservationResult[reservations.size()];
+        List<Reservation> owned = parts.get(shards.self());
+        List<ReservationResult> ownedResults;
+        try {
+            ownedResults = makeAllOwned(owned, userId);
+        } catch (RuntimeException e) {
+            ownedResults = unavailable(owned, e);
+        }
+        place(ownedResults, positions.get(shards.self()), results);
+        if (!remote.isEmpty()) {
+            List<List<ReservationResult>> answers = Uni.join().all(remote)
+                .andFailFast().await().indefinitely();
+            for (int i = 0; i < answers.size(); i++) {
+                place(answers.get(i), positions.get(remoteNodes.get(i)),
+                    results);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Book the reservations of a batch whose cars are owned by this node
+     * on behalf of another one
+     * @throws BadRequestException if a car belongs to another node
+     */
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Timed(value = "endpoint.latency", histogram = true)
+    @POST
+    @Path("local/batch")
+    @RunOnVirtualThread
+    public List<ReservationResult> makeAllLocal(
+        List<Reservation> reservations, @RestQuery String userId) {
+        for (Reservation reservation : reservations) {
+            checkOwned(reservation);
+            reservation.userId = userId;
+        }
+        return makeAllOwned(reservations, userId);
+    }
+
+    /**
+     * A node only books the cars it owns, whoever asks it to
+     */
+    private void checkOwned(Reservation reservation) {
+        if (!shards.owns(reservation.carId)) {
+            throw new BadRequestException("Car " + reservation.carId
+                + " is booked by node " + shards.ownerOf(reservation.carId)
+                + ", not by this one");
         }
-        return result;
     }
 
+    private List<ReservationResult> makeAllOwned(
+        List<Reservation> reservations, String userId) {
+        ShardClient leader = replica.leader();
+        if (leader != null) {
+            return leader.makeAll(userId, reservations).await()
+                .indefinitely();
+        }
+        List<Optional<Reservation>> saved =
+            reservationsRepository.saveAllIfAvailable(reservations);
+        List<ReservationResult> results = new ArrayList<>(saved.size());
+        for (int i = 0; i < saved.size(); i++) {
+            if (saved.get(i).isPresent()) {
+                startRentalIfDue(saved.get(i).get());
+                results.add(new ReservationResult(i,
+                    ReservationResult.Status.CREATED, saved.get(i).get()));
+            } else {
+                results.add(new ReservationResult(i,
+                    ReservationResult.Status.CONFLICT, reservations.get(i)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Ranges asked for often are answered from the {@link FreeCarsView},
+     * every other range is computed. Requests beyond the
+     * {@link AvailabilityAdmission} budget are shed.
+     */
+    @Timed(value = "endpoint.latency", histogram = true)
     @GET
     @Path("availability")
-    public Collection<Car> availability(@RestQuery LocalDate startDate,
-                                        @RestQuery LocalDate endDate) {
-        // obtain all cars from inventory
-        List<Car> availableCars = inventoryClient.allCars();
-        // create a map from id to car
-        Map<Long, Car> carsById = new HashMap<>();
-        for (Car car : availableCars) {
-            carsById.put(car.id, car);
-        }
-
-        // get all current reservations
-        List<Reservation> reservations = reservationsRepository.findAll();
-        // for each reservation, remove the car from the map
-        for (Reservation reservation : reservations) {
-            if (reservation.isReserved(startDate, endDate)) {
-                carsById.remove(reservation.carId);
+    public Uni<Collection<Car>> availability(@RestQuery LocalDate startDate,
+                                             @RestQuery LocalDate endDate) {
+        if (!admission.tryAdmit()) {
+            return Uni.createFrom().item(shed(startDate, endDate));
+        }
+        long started = System.nanoTime();
+        // deferred, so a stale replica failing the request while the
+        // pipeline is built still releases the admission
+        return Uni.createFrom().deferred(() -> mergeAll(
+                availableCars(startDate, endDate),
+                peer -> peer.availability(startDate, endDate)))
+            .onTermination().invoke(() -> admission.release(started));
+    }
+
+    /**
+     * Free cars owned by this node
+     */
+    @Timed(value = "endpoint.latency", histogram = true)
+    @GET
+    @Path("local/availability")
+    public Uni<Collection<Car>> availabilityLocal(
+        @RestQuery LocalDate startDate, @RestQuery LocalDate endDate) {
+        return availableCars(startDate, endDate);
+    }
+
+    /**
+     * Same as {@link #availability(LocalDate, LocalDate)}, but executed on
+     * a worker thread that blocks while the cars are fetched
+     */
+    @Timed(value = "endpoint.latency", histogram = true)
+    @GET
+    @Path("availability/blocking")
+    public Collection<Car> availabilityBlocking(@RestQuery LocalDate startDate,
+                                                @RestQuery LocalDate endDate) {
+        if (!admission.tryAdmit()) {
+            return shed(startDate, endDate);
+        }
+        long started = System.nanoTime();
+        try {
+            if (shards.enabled()) {
+                return mergeAll(availableCars(startDate, endDate),
+                    peer -> peer.availability(startDate, endDate))
+                    .await().indefinitely();
             }
+            replica.checkFresh();
+            List<Car> cars = inventoryClient.allCars();
+            return freeCarsView.lookup(startDate, endDate)
+                .orElseGet(() -> freeCars(cars, startDate, endDate));
+        } finally {
+            admission.release(started);
         }
-        return carsById.values();
     }
 
+    /**
+     * Same as {@link #availability(LocalDate, LocalDate)}, but each free
+     * car is written as its own JSON line as soon as it is found, instead
+     * of collecting all of them into one array first. It is not timed: the
+     * method returns before the first car is written.
+     */
+    @GET
+    @Path("availability/stream")
+    @Produces(RestMediaType.APPLICATION_NDJSON)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<Car> availabilityStream(@RestQuery LocalDate startDate,
+                                         @RestQuery LocalDate endDate) {
+        if (shards.enabled()) {
+            return mergeAll(availableCars(startDate, endDate),
+                peer -> peer.availability(startDate, endDate))
+                .onItem().transformToMulti(cars ->
+                    Multi.createFrom().iterable(cars));
+        }
+        replica.checkFresh();
+        return inventoryClient.allCarsAsync()
+            .onItem().transformToMulti(cars -> {
+                Set<Long> reservedCarIds = reservationsRepository
+                    .findReservedCarIds(startDate, endDate);
+                return Multi.createFrom().iterable(cars)
+                    .filter(car -> !reservedCarIds.contains(car.id));
+            });
+    }
+
+    /**
+     * Free days per car and free cars per day for a range of at most
+     * {@value #MAX_CALENDAR_DAYS} days, computed from the per-car occupancy
+     * bitmaps instead of one availability check per day
+     */
+    @Timed(value = "endpoint.latency", histogram = true)
+    @GET
+    @Path("calendar")
+    public Uni<AvailabilityCalendar> calendar(@RestQuery LocalDate startDate,
+                                              @RestQuery LocalDate endDate) {
+        if (startDate == null || endDate == null ||
+            endDate.isBefore(startDate) ||
+            ChronoUnit.DAYS.between(startDate, endDate) >= MAX_CALENDAR_DAYS) {
+            throw new BadRequestException("The calendar needs a startDate "
+                + "and an endDate at most " + MAX_CALENDAR_DAYS
+                + " days later");
+        }
+        Uni<AvailabilityCalendar> local = calendarLocal(startDate, endDate);
+        if (!shards.enabled()) {
+            return local;
+        }
+        List<Uni<AvailabilityCalendar>> calendars = new ArrayList<>();
+        calendars.add(local);
+        for (ShardClient peer : shards.peers()) {
+            calendars.add(peer.calendar(startDate, endDate));
+        }
+        return Uni.join().all(calendars).andFailFast()
+            .map(ReservationResource::mergeCalendars);
+    }
+
+    /**
+     * Calendar of the cars owned by this node
+     */
+    @Timed(value = "endpoint.latency", histogram = true)
+    @GET
+    @Path("local/calendar")
+    public Uni<AvailabilityCalendar> calendarLocal(
+        @RestQuery LocalDate startDate, @RestQuery LocalDate endDate) {
+        replica.checkFresh();
+        return inventoryClient.allCarsAsync()
+            .map(cars -> calendar(owned(cars), startDate, endDate));
+    }
+
+    @Timed(value = "endpoint.latency", histogram = true)
     @GET
     @Path("all")
-    public Collection<Reservation> allReservations() {
+    @NonBlocking
+    public Uni<Collection<Reservation>> allReservations() {
+        String userId = context.getUserPrincipal() != null ?
+            context.getUserPrincipal().getName() : null;
+        return mergeAll(allLocal(userId), peer -> peer.all(userId));
+    }
+
+    /**
+     * Reservations stored on this node, all of them without a user
+     */
+    @Timed(value = "endpoint.latency", histogram = true)
+    @GET
+    @Path("local/all")
+    @NonBlocking
+    public Uni<Collection<Reservation>> allLocal(@RestQuery String userId) {
+        replica.checkFresh();
+        return Uni.createFrom().item(userId == null ?
+            reservationsRepository.findAll() :
+            reservationsRepository.findByUser(userId));
+    }
+
+    /**
+     * Reservations that have ended and were moved to the archive
+     */
+    @Timed(value = "endpoint.latency", histogram = true)
+    @GET
+    @Path("history")
+    @NonBlocking
+    public Uni<Collection<Reservation>> history() {
         String userId = context.getUserPrincipal() != null ?
             context.getUserPrincipal().getName() : null;
-        return reservationsRepository.findAll()
-            .stream()
-            .filter(reservation -> userId == null ||
-                userId.equals(reservation.userId))
-            .collect(Collectors.toList());
+        return mergeAll(historyLocal(userId), peer -> peer.history(userId));
+    }
+
+    /**
+     * Archived reservations of this node, all of them without a user
+     */
+    @Timed(value = "endpoint.latency", histogram = true)
+    @GET
+    @Path("local/history")
+    @NonBlocking
+    public Uni<Collection<Reservation>> historyLocal(
+        @RestQuery String userId) {
+        replica.checkFresh();
+        return Uni.createFrom().item(userId == null ? archive.findAll() :
+            archive.findByUser(userId));
+    }
+
+    /**
+     * Combine the answer of this node with the answers of all other nodes
+     */
+    private <T> Uni<Collection<T>> mergeAll(
+        Uni<Collection<T>> local,
+        Function<ShardClient, Uni<List<T>>> remote) {
+        if (!shards.enabled()) {
+            return local;
+        }
+        List<Uni<Collection<T>>> answers = new ArrayList<>();
+        answers.add(local);
+        for (ShardClient peer : shards.peers()) {
+            answers.add(remote.apply(peer).map(part -> part));
+        }
+        return Uni.join().all(answers).andFailFast().map(parts -> {
+            List<T> merged = new ArrayList<>();
+            for (Collection<T> part : parts) {
+                merged.addAll(part);
+            }
+            return merged;
+        });
+    }
+
+    /**
+     * Free cars owned by this node. The inventory is still asked when the
+     * view has the answer, so that fleet changes reach the view.
+     */
+    private Uni<Collection<Car>> availableCars(LocalDate startDate,
+                                               LocalDate endDate) {
+        replica.checkFresh();
+        return inventoryClient.allCarsAsync()
+            .map(cars -> owned(freeCarsView.lookup(startDate, endDate)
+                .orElseGet(() -> freeCars(cars, startDate, endDate))));
+    }
+
+    private Collection<Car> owned(Collection<Car> cars) {
+        if (!shards.enabled()) {
+            return cars;
+        }
+        List<Car> owned = new ArrayList<>();
+        for (Car car : cars) {
+            if (shards.owns(car.id)) {
+                owned.add(car);
+            }
+        }
+        return owned;
+    }
+
+    private static AvailabilityCalendar mergeCalendars(
+        List<AvailabilityCalendar> calendars) {
+        AvailabilityCalendar merged = calendars.get(0);
+        for (AvailabilityCalendar calendar : calendars.subList(1,
+            calendars.size())) {
+            merged.cars.addAll(calendar.cars);
+            for (int day = 0; day < merged.freeCarsPerDay.length; day++) {
+                merged.freeCarsPerDay[day] += calendar.freeCarsPerDay[day];
+            }
+        }
+        return merged;
+    }
+
+    private static List<ReservationResult> unavailable(
+        List<Reservation> part, Throwable failure) {
+        Log.warnf("Could not book %d reservations of a batch: %s",
+            part.size(), failure.getMessage());
+        List<ReservationResult> results = new ArrayList<>(part.size());
+        for (int i = 0; i < part.size(); i++) {
+            results.add(new ReservationResult(i,
+                ReservationResult.Status.UNAVAILABLE, part.get(i)));
+        }
+        return results;
+    }
+
+    private static void place(List<ReservationResult> part,
+                              List<Integer> positions,
+                              ReservationResult[] results) {
+        for (ReservationResult result : part) {
+            result.index = positions.get(result.index);
+            results[result.index] = result;
+        }
+    }
+
+    private AvailabilityCalendar calendar(Collection<Car> cars,
+                                          LocalDate startDate,
+                                          LocalDate endDate) {
+        int days = (int) ChronoUnit.DAYS.between(startDate, endDate) + 1;
+        Map<Long, BitSet> occupied = reservationsRepository
+            .findOccupiedDays(startDate, endDate);
+
+        AvailabilityCalendar calendar = new AvailabilityCalendar();
+        calendar.startDate = startDate;
+        calendar.endDate = endDate;
+        int[] occupiedCars = new int[days];
+        for (Car car : cars) {
+            BitSet free = new BitSet(days);
+            free.set(0, days);
+            BitSet carOccupied = occupied.get(car.id);
+            if (carOccupied != null) {
+                free.andNot(carOccupied);
+                for (int day = carOccupied.nextSetBit(0); day >= 0;
+                     day = carOccupied.nextSetBit(day + 1)) {
+                    occupiedCars[day]++;
+                }
+            }
+            List<LocalDate> freeDays = new ArrayList<>(free.cardinality());
+            for (int day = free.nextSetBit(0); day >= 0;
+                 day = free.nextSetBit(day + 1)) {
+                freeDays.add(startDate.plusDays(day));
+            }
+            calendar.cars.add(new AvailabilityCalendar.CarDays(car.id,
+                freeDays));
+        }
+        calendar.freeCarsPerDay = new int[days];
+        for (int day = 0; day < days; day++) {
+            calendar.freeCarsPerDay[day] = cars.size() - occupiedCars[day];
+        }
+        return calendar;
+    }
+
+    /**
+     * Answer an availability request that was not admitted from the local
+     * copy of the inventory, however old, or turn it away. With several
+     * nodes it is always turned away, this node alone does not know which
+     * cars are booked on the others.
+     */
+    private Collection<Car> shed(LocalDate startDate, LocalDate endDate) {
+        replica.checkFresh();
+        List<Car> cars = shards.enabled() ? null :
+            inventoryClient.cachedCars().orElse(null);
+        if (cars == null) {
+            throw new ServiceUnavailableException(admission.reject());
+        }
+        admission.shedWithStaleAnswer();
+        return freeCarsView.lookup(startDate, endDate)
+            .orElseGet(() -> freeCars(cars, startDate, endDate));
+    }
+
+    private Collection<Car> freeCars(List<Car> cars, LocalDate startDate,
+                                     LocalDate endDate) {
+        // get the cars booked in the requested duration
+        Set<Long> reservedCarIds = reservationsRepository
+            .findReservedCarIds(startDate, endDate);
+        // keep only the cars that are not booked
+        List<Car> freeCars = new ArrayList<>();
+        for (Car car : cars) {
+            if (!reservedCarIds.contains(car.id)) {
+                freeCars.add(car);
+            }
+        }
+        return freeCars;
+    }
+
+    private String currentUserId() {
+        return context.getUserPrincipal() != null ?
+            context.getUserPrincipal().getName() : "anonymous";
+    }
+
+    private Reservation makeOwned(Reservation reservation, String key) {
+        ShardClient leader = replica.leader();
+        if (leader != null) {
+            return forward(leader, reservation, key);
+        }
+        if (key == null) {
+            return book(reservation);
+        }
+        return idempotentRequests.execute(reservation.userId + ":" + key,
+            Arrays.asList(reservation.carId, reservation.startDay,
+                reservation.endDay),
+            () -> book(reservation));
+    }
+
+    private Reservation book(Reservation reservation) {
+        Reservation result = reservationsRepository
+            .saveIfAvailable(reservation)
+            .orElseThrow(() -> conflict(reservation));
+        startRentalIfDue(result);
+        return result;
+    }
+
+    private static ClientErrorException conflict(Reservation reservation) {
+        return new ClientErrorException(
+            "Car " + reservation.carId + " is already reserved between "
+                + reservation.startDay + " and " + reservation.endDay,
+            Response.Status.CONFLICT);
+    }
+
+    /**
+     * Book on the node owning the car, or on the leader of this replica.
+     * Its failures are passed on with their status, a failed client call
+     * would otherwise be answered with a 500.
+     */
+    private static Reservation forward(ShardClient node,
+                                       Reservation reservation, String key) {
+        try {
+            return node.make(reservation.userId, key, reservation);
+        } catch (WebApplicationException e) {
+            int status = e.getResponse().getStatus();
+            if (status == Response.Status.CONFLICT.getStatusCode()) {
+                throw conflict(reservation);
+            }
+            throw new WebApplicationException("The node booking car "
+                + reservation.carId + " answered " + status, status);
+        }
+    }
+
+    private void startRentalIfDue(Reservation reservation) {
+        if (reservation.startsToday()) {
+            rentalOutbox.enqueue(reservation);
+            Log.info("Queued rental start for reservation " + reservation.id);
+        }
     }
 }
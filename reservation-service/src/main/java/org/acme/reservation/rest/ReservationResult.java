@@ -0,0 +1,32 @@
+package org.acme.reservation.rest;
+
+import org.acme.reservation.reservation.Reservation;
+
+/**
+ * Outcome of one reservation of a batch
+ */
+public class ReservationResult {
+
+    public enum Status {
+        CREATED, CONFLICT,
+        /**
+         * The node booking the car failed or did not answer, the
+         * reservation may or may not have been made
+         */
+        UNAVAILABLE
+    }
+
+    public int index;
+    public Status status;
+    public Reservation reservation;
+
+    public ReservationResult() {
+    }
+
+    public ReservationResult(int index, Status status,
+                             Reservation reservation) {
+        this.index = index;
+        this.status = status;
+        this.reservation = reservation;
+    }
+}
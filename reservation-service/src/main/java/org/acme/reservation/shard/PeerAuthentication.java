@@ -0,0 +1,64 @@
+package org.acme.reservation.shard;
+
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Singleton;
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.client.ClientRequestFilter;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Optional;
+
+/**
+ * The {@code /reservation/local} endpoints book and list reservations for
+ * the user named in the request, so only other reservation-service nodes
+ * may call them. They prove it by sending {@code reservation.shard.secret}
+ * in the {@value #HEADER} header, which every {@link ShardClient} adds.
+ * Without a configured secret the endpoints are closed.
+ */
+@Singleton
+public class PeerAuthentication implements ClientRequestFilter {
+
+    public static final String HEADER = "X-Reservation-Peer-Secret";
+
+    private final byte[] secret;
+
+    public PeerAuthentication(
+        @ConfigProperty(name = "reservation.shard.secret")
+        Optional<String> secret) {
+        this.secret = secret.map(value ->
+            value.getBytes(StandardCharsets.UTF_8)).orElse(null);
+    }
+
+    /**
+     * @return whether a request carrying this header comes from a peer
+     */
+    public boolean isPeer(String header) {
+        return secret != null && header != null && MessageDigest.isEqual(
+            secret, header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void filter(ClientRequestContext request) {
+        if (secret != null) {
+            request.getHeaders().putSingle(HEADER,
+                new String(secret, StandardCharsets.UTF_8));
+        }
+    }
+
+    void install(@Observes Router router) {
+        router.route("/reservation/local/*").order(-90).handler(this::check);
+    }
+
+    private void check(RoutingContext context) {
+        if (isPeer(context.request().getHeader(HEADER))) {
+            context.next();
+        } else {
+            context.response().setStatusCode(403)
+                .end("Only reservation-service nodes may call this");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.acme.reservation.shard;
+
+import io.quarkus.runtime.annotations.RegisterForProxy;
+import io.smallrye.mutiny.Uni;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import org.acme.reservation.inventory.Car;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.rest.AvailabilityCalendar;
+import org.acme.reservation.rest.ReservationResult;
+import org.jboss.resteasy.reactive.RestHeader;
+import org.jboss.resteasy.reactive.RestQuery;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Calls to another reservation-service node, answered only from the
+ * reservations that node owns
+ */
+@Path("/reservation/local")
+@RegisterForProxy
+public interface ShardClient {
+
+    @POST
+    Reservation make(@RestQuery String userId,
+                     @RestHeader("Idempotency-Key") String key,
+                     Reservation reservation);
+
+    @POST
+    @Path("batch")
+    Uni<List<ReservationResult>> makeAll(@RestQuery String userId,
+                                         List<Reservation> reservations);
+
+    @GET
+    @Path("availability")
+    Uni<List<Car>> availability(@RestQuery LocalDate startDate,
+                                @RestQuery LocalDate endDate);
+
+    @GET
+    @Path("calendar")
+    Uni<AvailabilityCalendar> calendar(@RestQuery LocalDate startDate,
+                                       @RestQuery LocalDate endDate);
+
+    @GET
+    @Path("all")
+    Uni<List<Reservation>> all(@RestQuery String userId);
+
+    @GET
+    @Path("history")
+    Uni<List<Reservation>> history(@RestQuery String userId);
+}
@@ -0,0 +1,72 @@
+package org.acme.reservation.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of car ids onto nodes. Every node is placed on a
+ * ring of 64-bit hashes at {@code virtualNodes} points derived from its
+ * name, and a car belongs to the first node point at or after the hash of
+ * its id. Adding a node only moves the cars that now hash to one of its
+ * points, about one car in every {@code n + 1}.
+ * <p>
+ * All nodes must be configured with the same names to agree on the owners.
+ */
+public class ShardRing {
+
+    private final TreeMap<Long, Integer> points = new TreeMap<>();
+    private final int size;
+
+    public ShardRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException(
+                "A ring needs at least one node and one point per node");
+        }
+        this.size = nodes.size();
+        for (int node = 0; node < nodes.size(); node++) {
+            byte[] name = nodes.get(node).getBytes(StandardCharsets.UTF_8);
+            for (int point = 0; point < virtualNodes; point++) {
+                points.putIfAbsent(mix(hash(name) + point), node);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the index of the node owning the given car
+     */
+    public int ownerOf(long carId) {
+        Map.Entry<Long, Integer> point = points.ceilingEntry(mix(carId));
+        return point != null ? point.getValue() :
+            points.firstEntry().getValue();
+    }
+
+    /**
+     * FNV-1a of the node name
+     */
+    private static long hash(byte[] name) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : name) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads consecutive ids over the ring
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
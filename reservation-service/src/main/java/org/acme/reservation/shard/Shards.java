@@ -0,0 +1,114 @@
+package org.acme.reservation.shard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import io.quarkus.rest.client.reactive.QuarkusRestClientBuilder;
+import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Singleton;
+import org.acme.reservation.reservation.ReservationIds;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The nodes reservations are split across, configured with
+ * {@code reservation.shard.nodes}. Each car is owned by one node of the
+ * {@link ShardRing} and only that node stores its reservations; this node
+ * is the one at index {@code reservation.shard.self} of the list.
+ * <p>
+ * Without a node list every car is owned by this node.
+ */
+@Singleton
+public class Shards {
+
+    private final ShardRing ring;
+    private final int self;
+    private final List<ShardClient> clients;
+    private final List<ShardClient> peers;
+
+    public Shards(
+        @ConfigProperty(name = "reservation.shard.nodes")
+        Optional<List<String>> nodes,
+        @ConfigProperty(name = "reservation.shard.self",
+            defaultValue = "0") int self,
+        @ConfigProperty(name = "reservation.shard.virtual-nodes",
+            defaultValue = "128") int virtualNodes,
+        PeerAuthentication authentication,
+        MeterRegistry registry) {
+        List<String> urls = nodes.orElse(List.of("local"));
+        if (self < 0 || self >= urls.size()) {
+            throw new IllegalArgumentException("reservation.shard.self "
+                + self + " is not one of the " + urls.size() + " nodes");
+        }
+        this.ring = new ShardRing(urls, virtualNodes);
+        this.self = self;
+        List<ShardClient> clients = new ArrayList<>(urls.size());
+        List<ShardClient> peers = new ArrayList<>(urls.size());
+        for (int node = 0; node < urls.size(); node++) {
+            if (node == self) {
+                clients.add(null);
+                continue;
+            }
+            ShardClient client = TimedClient.wrap(ShardClient.class,
+                QuarkusRestClientBuilder.newBuilder()
+                    .baseUri(URI.create(urls.get(node)))
+                    .register(authentication)
+                    .build(ShardClient.class), registry);
+            clients.add(client);
+            peers.add(client);
+        }
+        this.clients = Collections.unmodifiableList(clients);
+        this.peers = Collections.unmodifiableList(peers);
+        if (enabled()) {
+            Log.infof("Node %d of %s", self, urls);
+        }
+    }
+
+    public boolean enabled() {
+        return ring.size() > 1;
+    }
+
+    public int size() {
+        return ring.size();
+    }
+
+    public int self() {
+        return self;
+    }
+
+    public int ownerOf(Long carId) {
+        return carId == null ? self : ring.ownerOf(carId);
+    }
+
+    public boolean owns(Long carId) {
+        return ownerOf(carId) == self;
+    }
+
+    /**
+     * @return the client of the given node, or null for this node
+     */
+    public ShardClient client(int node) {
+        return clients.get(node);
+    }
+
+    /**
+     * @return the clients of all other nodes
+     */
+    public List<ShardClient> peers() {
+        return peers;
+    }
+
+    /**
+     * Every node hands out the reservation ids congruent to its index, so
+     * ids stay unique across the nodes
+     */
+    @Produces
+    @Singleton
+    ReservationIds reservationIds() {
+        return new ReservationIds(ring.size(), self);
+    }
+}
@@ -0,0 +1,91 @@
+package org.acme.reservation.shard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.Uni;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the latency of every call of a REST client as
+ * {@code client.latency}, tagged like {@code @Timed} tags it for injected
+ * clients. Clients built with {@code QuarkusRestClientBuilder} are not
+ * intercepted, so they are wrapped in a proxy instead. A call returning a
+ * {@link Uni} is timed from subscription until it terminates.
+ * <p>
+ * The proxy does not implement the client interface with a class, which
+ * Quarkus would turn into a resource serving the client's paths.
+ */
+public final class TimedClient implements InvocationHandler {
+
+    private final Object delegate;
+    private final Map<Method, Timer> timers = new HashMap<>();
+
+    private TimedClient(Class<?> client, Object delegate,
+                        MeterRegistry registry) {
+        this.delegate = delegate;
+        for (Method method : client.getMethods()) {
+            timers.put(method, Timer.builder("client.latency")
+                .tag("class", client.getName())
+                .tag("method", method.getName())
+                .publishPercentileHistogram()
+                .register(registry));
+        }
+    }
+
+    /**
+     * @return the client, timing every call
+     */
+    public static <T> T wrap(Class<T> client, T delegate,
+                             MeterRegistry registry) {
+        return client.cast(Proxy.newProxyInstance(client.getClassLoader(),
+            new Class<?>[] {client},
+            new TimedClient(client, delegate, registry)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        Timer timer = timers.get(method);
+        if (timer == null) {
+            // equals, hashCode and toString
+            return call(method, args);
+        }
+        if (method.getReturnType() == Uni.class) {
+            return Uni.createFrom().deferred(() -> {
+                long started = System.nanoTime();
+                return ((Uni<?>) call(method, args)).onTermination().invoke(
+                    () -> timer.record(System.nanoTime() - started,
+                        TimeUnit.NANOSECONDS));
+            });
+        }
+        long started = System.nanoTime();
+        try {
+            return call(method, args);
+        } finally {
+            timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Object call(Method method, Object[] args) {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new UndeclaredThrowableException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.acme.reservation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import jakarta.ws.rs.ServiceUnavailableException;
+import org.acme.reservation.availability.FreeCarsView;
+import org.acme.reservation.inventory.Car;
+import org.acme.reservation.inventory.InventoryClient;
+import org.acme.reservation.replication.Replica;
+import org.acme.reservation.reservation.InMemoryReservationsRepository;
+import org.acme.reservation.reservation.ReservationArchive;
+import org.acme.reservation.reservation.ReservationsRepository;
+import org.acme.reservation.rest.AvailabilityAdmission;
+import org.acme.reservation.rest.ReservationResource;
+import org.acme.reservation.shard.PeerAuthentication;
+import org.acme.reservation.shard.Shards;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+public class AvailabilityAdmissionTest {
+
+    @Test
+    public void testRequestsBeyondConcurrencyBudgetAreShed() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AvailabilityAdmission admission = new AvailabilityAdmission(registry,
+            2, Duration.ofMinutes(1), Duration.ofSeconds(3));
+        long started = System.nanoTime();
+
+        Assertions.assertTrue(admission.tryAdmit());
+        Assertions.assertTrue(admission.tryAdmit());
+        Assertions.assertFalse(admission.tryAdmit());
+        Assertions.assertEquals(3, admission.reject());
+
+        admission.release(started);
+        Assertions.assertTrue(admission.tryAdmit());
+        Assertions.assertEquals(3, registry.get("reservation.admission")
+            .tag("decision", "admitted").counter().count());
+        Assertions.assertEquals(1, registry.get("reservation.admission")
+            .tag("decision", "rejected").counter().count());
+    }
+
+    @Test
+    public void testSlowRequestsShrinkTheBudgetUntilLatencyRecovers() {
+        AvailabilityAdmission admission = new AvailabilityAdmission(
+            new SimpleMeterRegistry(), 10, Duration.ofMillis(100),
+            Duration.ofSeconds(1));
+        // one very slow request pushes the average over the budget
+        Assertions.assertTrue(admission.tryAdmit());
+        admission.release(System.nanoTime() - Duration.ofSeconds(10)
+            .toNanos());
+
+        Assertions.assertTrue(admission.tryAdmit());
+        Assertions.assertFalse(admission.tryAdmit());
+
+        // fast requests bring the average back down
+        long started = System.nanoTime();
+        admission.release(started);
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertTrue(admission.tryAdmit());
+            admission.release(System.nanoTime());
+        }
+        Assertions.assertTrue(admission.tryAdmit());
+        Assertions.assertTrue(admission.tryAdmit());
+    }
+
+    @Test
+    public void testStaleReplicaReadsGiveBackTheirAdmission() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AvailabilityAdmission admission = new AvailabilityAdmission(registry,
+            2, Duration.ofMinutes(1), Duration.ofSeconds(1));
+        Replica replica = Mockito.mock(Replica.class);
+        ReservationsRepository repository =
+            new InMemoryReservationsRepository();
+        List<Car> fleet = List.of(new Car(1L, "ABC123", "Peugeot", "406"));
+        InventoryClient inventory = new InventoryClient() {
+            @Override
+            public List<Car> allCars() {
+                return fleet;
+            }
+
+            @Override
+            public Uni<List<Car>> allCarsAsync() {
+                return Uni.createFrom().item(fleet);
+            }
+        };
+        ReservationResource resource = new ReservationResource(repository,
+            inventory, null, new FreeCarsView(repository, registry),
+            new ReservationArchive(), null, admission,
+            new Shards(Optional.empty(), 0, 16,
+                new PeerAuthentication(Optional.empty()), registry), replica);
+        LocalDate start = LocalDate.parse("2025-01-01");
+        LocalDate end = LocalDate.parse("2025-01-02");
+
+        Mockito.doThrow(new ServiceUnavailableException(
+            "Replica is behind its leader", 1L)).when(replica).checkFresh();
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertThrows(ServiceUnavailableException.class,
+                () -> resource.availability(start, end).await()
+                    .indefinitely());
+        }
+
+        // the replica caught up, and no stale read kept its permit
+        Mockito.doNothing().when(replica).checkFresh();
+        Assertions.assertEquals(1, resource.availability(start, end)
+            .await().indefinitely().size());
+        Assertions.assertEquals(0, registry.get("reservation.admission")
+            .tag("decision", "rejected").counter().count());
+    }
+}
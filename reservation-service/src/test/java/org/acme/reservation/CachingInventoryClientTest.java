@@ -0,0 +1,150 @@
+package org.acme.reservation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.event.Event;
+import org.acme.reservation.inventory.CachingInventoryClient;
+import org.acme.reservation.inventory.Car;
+import org.acme.reservation.inventory.GraphQLInventoryClient;
+import org.acme.reservation.inventory.InventoryChange;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class CachingInventoryClientTest {
+
+    private static final int PAGE_SIZE = 1000;
+
+    private final Car peugeot = new Car(1L, "ABC123", "Peugeot", "406");
+    private final Car mazda = new Car(2L, "XYZ987", "Mazda", "6");
+    @SuppressWarnings("unchecked")
+    private final Event<InventoryChange> changes = Mockito.mock(Event.class);
+
+    @Test
+    public void testFreshCopyIsServedWithoutRoundTrip() {
+        GraphQLInventoryClient inventory =
+            Mockito.mock(GraphQLInventoryClient.class);
+        Mockito.when(inventory.cars(null, 1000, null))
+            .thenReturn(List.of(peugeot));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CachingInventoryClient cache = new CachingInventoryClient(
+            inventory, registry, changes, Duration.ofMinutes(1), Duration.ZERO,
+            PAGE_SIZE);
+
+        Assertions.assertEquals(List.of(peugeot), cache.allCars());
+        Assertions.assertEquals(List.of(peugeot), cache.allCars());
+
+        Mockito.verify(inventory, Mockito.times(1)).cars(null, 1000, null);
+        Assertions.assertEquals(1, registry.get("inventory.cache.requests")
+            .tag("result", "hit").counter().count());
+        Assertions.assertEquals(1, registry.get("inventory.cache.requests")
+            .tag("result", "miss").counter().count());
+    }
+
+    @Test
+    public void testCarsAreOnlyFetchedAgainWhenVersionChanges() {
+        GraphQLInventoryClient inventory =
+            Mockito.mock(GraphQLInventoryClient.class);
+        Mockito.when(inventory.inventoryVersion()).thenReturn(1L);
+        Mockito.when(inventory.cars(null, 1000, null))
+            .thenReturn(List.of(peugeot));
+        CachingInventoryClient cache = new CachingInventoryClient(
+            inventory, new SimpleMeterRegistry(), changes, Duration.ZERO,
+            Duration.ZERO, PAGE_SIZE);
+
+        cache.allCars();
+        cache.allCars();
+        Mockito.verify(inventory, Mockito.times(1)).cars(null, 1000, null);
+
+        Mockito.when(inventory.inventoryVersion()).thenReturn(2L);
+        Mockito.when(inventory.cars(null, 1000, null))
+            .thenReturn(List.of(peugeot, mazda));
+        Assertions.assertEquals(List.of(peugeot, mazda), cache.allCars());
+        Mockito.verify(inventory, Mockito.times(2)).cars(null, 1000, null);
+
+        // only the new car is announced to observers
+        ArgumentCaptor<InventoryChange> change =
+            ArgumentCaptor.forClass(InventoryChange.class);
+        Mockito.verify(changes, Mockito.times(2)).fire(change.capture());
+        Assertions.assertEquals(List.of(mazda), change.getValue().added);
+        Assertions.assertEquals(List.of(), change.getValue().removed);
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneFetch() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        GraphQLInventoryClient inventory =
+            Mockito.mock(GraphQLInventoryClient.class);
+        Mockito.when(inventory.cars(null, 1000, null))
+            .thenAnswer(invocation -> {
+                release.await();
+                return List.of(peugeot);
+            });
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CachingInventoryClient cache = new CachingInventoryClient(
+            inventory, registry, changes, Duration.ofMinutes(1), Duration.ZERO,
+            PAGE_SIZE);
+
+        int callers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        List<Future<List<Car>>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(executor.submit(cache::allCars));
+        }
+        // let the fetch finish only once every other caller waits for it
+        while (registry.get("inventory.fetches").tag("type", "coalesced")
+            .counter().count() < callers - 1) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        for (Future<List<Car>> result : results) {
+            Assertions.assertEquals(List.of(peugeot),
+                result.get(1, TimeUnit.MINUTES));
+        }
+        executor.shutdown();
+
+        Mockito.verify(inventory, Mockito.times(1)).cars(null, 1000, null);
+        Assertions.assertEquals(1, registry.get("inventory.fetches")
+            .tag("type", "issued").counter().count());
+    }
+
+    @Test
+    public void testFleetIsDownloadedInPages() {
+        GraphQLInventoryClient inventory =
+            Mockito.mock(GraphQLInventoryClient.class);
+        Mockito.when(inventory.cars(null, 1, null))
+            .thenReturn(List.of(peugeot));
+        Mockito.when(inventory.cars(null, 1, 1L))
+            .thenReturn(List.of(mazda));
+        Mockito.when(inventory.cars(null, 1, 2L)).thenReturn(List.of());
+        Mockito.when(inventory.carsAsync(null, 1, null))
+            .thenReturn(Uni.createFrom().item(List.of(peugeot)));
+        Mockito.when(inventory.carsAsync(null, 1, 1L))
+            .thenReturn(Uni.createFrom().item(List.of(mazda)));
+        Mockito.when(inventory.carsAsync(null, 1, 2L))
+            .thenReturn(Uni.createFrom().item(List.of()));
+        Mockito.when(inventory.inventoryVersionAsync())
+            .thenReturn(Uni.createFrom().item(1L));
+
+        CachingInventoryClient blocking = new CachingInventoryClient(
+            inventory, new SimpleMeterRegistry(), changes,
+            Duration.ofMinutes(1), Duration.ZERO, 1);
+        Assertions.assertEquals(List.of(peugeot, mazda), blocking.allCars());
+
+        CachingInventoryClient reactive = new CachingInventoryClient(
+            inventory, new SimpleMeterRegistry(), changes,
+            Duration.ofMinutes(1), Duration.ZERO, 1);
+        Assertions.assertEquals(List.of(peugeot, mazda),
+            reactive.allCarsAsync().await().indefinitely());
+    }
+}
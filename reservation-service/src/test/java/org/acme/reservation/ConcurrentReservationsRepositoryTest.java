@@ -0,0 +1,143 @@
+package org.acme.reservation;
+
+import org.acme.reservation.reservation.ConcurrentReservationsRepository;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationArchive;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ConcurrentReservationsRepositoryTest {
+
+    private static final int WRITERS = 8;
+    private static final int SAVES_PER_WRITER = 20_000;
+    private static final int CARS = 64;
+
+    @Test
+    public void testConcurrentSavesAndSnapshots() throws Exception {
+        ConcurrentReservationsRepository repository =
+            new ConcurrentReservationsRepository();
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        List<Future<?>> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers.add(executor.submit(() -> {
+                start.await();
+                LocalDate day = LocalDate.parse("2030-01-01");
+                for (int i = 0; i < SAVES_PER_WRITER; i++) {
+                    Reservation reservation = new Reservation();
+                    reservation.carId = (long) ((writer + i) % CARS);
+                    reservation.userId = "user" + writer;
+                    reservation.startDay = day.plusDays(i);
+                    reservation.endDay = day.plusDays(i);
+                    repository.save(reservation);
+                }
+                return null;
+            }));
+        }
+        // snapshots taken while writers run must never shrink, contain
+        // holes or change after they were returned
+        Future<?> reader = executor.submit(() -> {
+            start.await();
+            int previousSize = 0;
+            while (writing.get()) {
+                List<Reservation> snapshot = repository.findAll();
+                int size = snapshot.size();
+                Assertions.assertTrue(size >= previousSize);
+                for (Reservation reservation : snapshot) {
+                    Assertions.assertNotNull(reservation.id);
+                }
+                Assertions.assertEquals(size, snapshot.size());
+                previousSize = size;
+            }
+            return null;
+        });
+
+        start.countDown();
+        for (Future<?> writer : writers) {
+            writer.get(1, TimeUnit.MINUTES);
+        }
+        writing.set(false);
+        reader.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        List<Reservation> all = repository.findAll();
+        Assertions.assertEquals(WRITERS * SAVES_PER_WRITER, all.size());
+        Set<Long> ids = new HashSet<>();
+        for (Reservation reservation : all) {
+            Assertions.assertTrue(ids.add(reservation.id));
+        }
+        Assertions.assertEquals(CARS, repository.findReservedCarIds(
+            LocalDate.parse("2030-01-01"),
+            LocalDate.parse("2030-01-01").plusDays(SAVES_PER_WRITER))
+            .size());
+    }
+
+    @Test
+    public void testArchivingWhileSaving() throws Exception {
+        ConcurrentReservationsRepository repository =
+            new ConcurrentReservationsRepository();
+        ReservationArchive archive = new ReservationArchive();
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        LocalDate day = LocalDate.parse("2030-01-01");
+        LocalDate archiveBefore = day.plusDays(SAVES_PER_WRITER);
+
+        List<Future<?>> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < SAVES_PER_WRITER; i++) {
+                    Reservation reservation = new Reservation();
+                    reservation.carId = (long) ((writer + i) % CARS);
+                    reservation.userId = "user" + (i % CARS);
+                    reservation.startDay = day.plusDays(i);
+                    reservation.endDay = day.plusDays(i);
+                    repository.save(reservation);
+                }
+                return null;
+            }));
+        }
+        // every reservation ends before archiveBefore, so the archiver
+        // races the writers for each of them
+        Future<?> archiver = executor.submit(() -> {
+            start.await();
+            while (writing.get()) {
+                repository.archiveEndedBefore(archiveBefore, archive);
+            }
+            return null;
+        });
+
+        start.countDown();
+        for (Future<?> writer : writers) {
+            writer.get(1, TimeUnit.MINUTES);
+        }
+        writing.set(false);
+        archiver.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+        repository.archiveEndedBefore(archiveBefore, archive);
+
+        Assertions.assertEquals(WRITERS * SAVES_PER_WRITER, archive.size());
+        Assertions.assertEquals(0, repository.count());
+        for (int user = 0; user < CARS; user++) {
+            Assertions.assertEquals(List.of(),
+                repository.findByUser("user" + user));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package org.acme.reservation;
+
+import io.quarkus.logging.Log;
+import org.acme.reservation.reservation.DurableReservationsRepository;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationArchive;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class DurableReservationsRepositoryTest {
+
+    private static final LocalDate DAY = LocalDate.parse("2030-01-01");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testReservationsAndIdsSurviveRestart() {
+        DurableReservationsRepository repository =
+            new DurableReservationsRepository(new ReservationArchive(),
+                directory, true, 3);
+        for (int i = 0; i < 5; i++) {
+            repository.save(reservation(i));
+        }
+        repository.close();
+
+        // 3 reservations come from the snapshot, 2 from the log
+        repository = new DurableReservationsRepository(
+            new ReservationArchive(), directory, true, 3);
+        Assertions.assertEquals(5, repository.findAll().size());
+        Assertions.assertEquals(2, repository.findByUser("user1").size());
+        Assertions.assertEquals(6L, repository.save(reservation(5)).id);
+        repository.close();
+    }
+
+    @Test
+    public void testTornTailIsDropped() throws IOException {
+        DurableReservationsRepository repository =
+            new DurableReservationsRepository(new ReservationArchive(),
+                directory, false, 1000);
+        repository.save(reservation(0));
+        repository.save(reservation(1));
+        repository.close();
+        try (FileChannel log = FileChannel.open(
+            directory.resolve("reservations.log"), StandardOpenOption.WRITE)) {
+            log.truncate(log.size() - 3);
+        }
+
+        repository = new DurableReservationsRepository(
+            new ReservationArchive(), directory, false, 1000);
+        Assertions.assertEquals(1, repository.findAll().size());
+        Assertions.assertEquals(2L, repository.save(reservation(2)).id);
+        repository.close();
+    }
+
+    @Test
+    public void testArchivedReservationsSurviveSnapshots() {
+        ReservationArchive archive = new ReservationArchive();
+        DurableReservationsRepository repository =
+            new DurableReservationsRepository(archive, directory, true, 2);
+        for (int i = 0; i < 3; i++) {
+            repository.save(reservation(i));
+        }
+        Assertions.assertEquals(2,
+            repository.archiveEndedBefore(DAY.plusDays(4), archive));
+        // the snapshot written by these saves must keep the archived ones
+        repository.save(reservation(3));
+        repository.save(reservation(4));
+        repository.close();
+
+        archive = new ReservationArchive();
+        repository = new DurableReservationsRepository(archive, directory,
+            true, 2);
+        Assertions.assertEquals(5, repository.findAll().size());
+        Assertions.assertEquals(2,
+            repository.archiveEndedBefore(DAY.plusDays(4), archive));
+        Assertions.assertEquals(3, repository.findAll().size());
+        Assertions.assertEquals(2, archive.size());
+        repository.close();
+    }
+
+    @Test
+    public void testReservationThatCannotBeWrittenIsNotKept() {
+        DurableReservationsRepository repository =
+            new DurableReservationsRepository(new ReservationArchive(),
+                directory, true, 1000);
+        repository.close();
+
+        Assertions.assertThrows(RuntimeException.class,
+            () -> repository.saveIfAvailable(reservation(0)));
+        Assertions.assertThrows(RuntimeException.class,
+            () -> repository.saveAllIfAvailable(List.of(reservation(1))));
+        Assertions.assertEquals(0, repository.count());
+        Assertions.assertTrue(repository.findByUser("user0").isEmpty());
+        // the days are free again
+        Assertions.assertTrue(repository.findReservedCarIds(DAY,
+            DAY.plusDays(10)).isEmpty());
+    }
+
+    @Test
+    public void testSavesRacingCloseNeverHang() throws Exception {
+        DurableReservationsRepository repository =
+            new DurableReservationsRepository(new ReservationArchive(),
+                directory, true, 100_000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; ; i++) {
+                    try {
+                        repository.save(reservation(thread * 100_000 + i));
+                    } catch (RuntimeException e) {
+                        return;
+                    }
+                }
+            }));
+        }
+        Thread.sleep(50);
+        repository.close();
+        for (Future<?> future : futures) {
+            // every save either made it before close or failed
+            future.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testConcurrentSavesAreAllRecovered() throws Exception {
+        for (boolean groupCommit : new boolean[]{false, true}) {
+            Path journal = directory.resolve("group-commit-" + groupCommit);
+            DurableReservationsRepository repository =
+                new DurableReservationsRepository(new ReservationArchive(),
+                    journal, groupCommit, 100_000);
+            int threads = 16;
+            int savesPerThread = 100;
+            saveConcurrently(repository, threads, savesPerThread);
+            repository.close();
+
+            List<Reservation> recovered = new DurableReservationsRepository(
+                new ReservationArchive(), journal, true, 100_000).findAll();
+            Assertions.assertEquals(threads * savesPerThread,
+                recovered.size());
+            // every save made it once, under an id of its own
+            Assertions.assertEquals(threads * savesPerThread, recovered
+                .stream().map(reservation -> reservation.carId).distinct()
+                .count());
+            Assertions.assertEquals(threads * savesPerThread, recovered
+                .stream().map(reservation -> reservation.id).distinct()
+                .count());
+        }
+    }
+
+    /**
+     * A benchmark, run with {@code mvn test -Pbenchmark}: saves per second
+     * of 16 threads with and without group commit
+     */
+    @Test
+    @Tag("benchmark")
+    public void testSaveThroughputWithAndWithoutGroupCommit()
+        throws Exception {
+        for (boolean groupCommit : new boolean[]{false, true}) {
+            DurableReservationsRepository repository =
+                new DurableReservationsRepository(new ReservationArchive(),
+                    directory.resolve("group-commit-" + groupCommit),
+                    groupCommit, 100_000);
+            int threads = 16;
+            int savesPerThread = 100;
+            long elapsed = saveConcurrently(repository, threads,
+                savesPerThread);
+            repository.close();
+            Log.infof("Group commit %s: %.0f saves/s", groupCommit,
+                threads * savesPerThread * 1e9 / elapsed);
+        }
+    }
+
+    /**
+     * @return how long the saves took, in nanoseconds
+     */
+    private static long saveConcurrently(
+        DurableReservationsRepository repository, int threads,
+        int savesPerThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long started = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < savesPerThread; i++) {
+                    repository.save(reservation(thread * savesPerThread + i));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        long elapsed = System.nanoTime() - started;
+        executor.shutdown();
+        return elapsed;
+    }
+
+    private static Reservation reservation(int i) {
+        Reservation reservation = new Reservation();
+        reservation.carId = (long) i;
+        reservation.userId = "user" + i % 3;
+        reservation.startDay = DAY.plusDays(i);
+        reservation.endDay = DAY.plusDays(i + 2);
+        return reservation;
+    }
+}
@@ -0,0 +1,128 @@
+package org.acme.reservation;
+
+import io.quarkus.logging.Log;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusMock;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.smallrye.mutiny.Uni;
+import org.acme.reservation.inventory.Car;
+import org.acme.reservation.inventory.GraphQLInventoryClient;
+import org.acme.reservation.rest.ReservationResource;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Compares the worker-thread availability endpoint with the reactive one
+ * while inventory-service answers slowly and nothing is cached. A benchmark
+ * rather than a test, so it only runs with {@code mvn test -Pbenchmark}.
+ */
+@QuarkusTest
+@Tag("benchmark")
+@TestProfile(ExecutionModeLoadTest.SlowInventoryProfile.class)
+public class ExecutionModeLoadTest {
+
+    private static final Duration INVENTORY_LATENCY = Duration.ofMillis(100);
+    private static final int REQUESTS = 400;
+    private static final int CONCURRENCY = 64;
+
+    @TestHTTPEndpoint(ReservationResource.class)
+    @TestHTTPResource("availability")
+    URL availability;
+
+    public static class SlowInventoryProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                "inventory.cache.ttl", "0s",
+                "inventory.cache.max-stale", "0s",
+                "quarkus.thread-pool.max-threads", "8",
+                // measure the execution models, not the load shedding
+                "reservation.admission.max-concurrent", "1000",
+                "reservation.admission.latency-budget", "1h");
+        }
+    }
+
+    @BeforeEach
+    public void slowInventory() {
+        List<Car> cars = List.of(new Car(1L, "ABC123", "Peugeot", "406"));
+        GraphQLInventoryClient mock =
+            Mockito.mock(GraphQLInventoryClient.class);
+        Mockito.when(mock.cars(Mockito.any(), Mockito.anyInt(),
+            Mockito.any())).thenAnswer(invocation -> {
+            Thread.sleep(INVENTORY_LATENCY.toMillis());
+            return cars;
+        });
+        Mockito.when(mock.carsAsync(Mockito.any(), Mockito.anyInt(),
+            Mockito.any())).thenAnswer(invocation ->
+            Uni.createFrom().item(cars)
+                .onItem().delayIt().by(INVENTORY_LATENCY));
+        Mockito.when(mock.inventoryVersionAsync())
+            .thenAnswer(invocation -> Uni.createFrom().item(0L));
+        QuarkusMock.installMockForType(mock, GraphQLInventoryClient.class);
+    }
+
+    @Test
+    public void testReactiveAvailabilityAgainstBlocking() throws Exception {
+        String query = "?startDate=2030-01-01&endDate=2030-01-02";
+        // warm up both paths
+        load(URI.create(availability + "/blocking" + query), 50);
+        load(URI.create(availability + query), 50);
+
+        Result blocking = load(URI.create(availability + "/blocking" + query),
+            REQUESTS);
+        Result reactive = load(URI.create(availability + query), REQUESTS);
+        Log.infof("Blocking availability: %.0f req/s, p99 %d ms",
+            blocking.throughput, blocking.p99Millis);
+        Log.infof("Reactive availability: %.0f req/s, p99 %d ms",
+            reactive.throughput, reactive.p99Millis);
+    }
+
+    private static Result load(URI uri, int requests) throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        Semaphore inFlight = new Semaphore(CONCURRENCY);
+        long[] latencies = new long[requests];
+        List<CompletableFuture<?>> responses = new ArrayList<>(requests);
+        long started = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            int request = i;
+            inFlight.acquire();
+            long sent = System.nanoTime();
+            responses.add(client.sendAsync(HttpRequest.newBuilder(uri).build(),
+                    HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, failure) -> {
+                    latencies[request] = System.nanoTime() - sent;
+                    inFlight.release();
+                })
+                .thenAccept(response ->
+                    Assertions.assertEquals(200, response.statusCode())));
+        }
+        CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new))
+            .join();
+        long elapsed = System.nanoTime() - started;
+        Arrays.sort(latencies);
+        return new Result(requests * 1e9 / elapsed,
+            latencies[(int) (requests * 0.99) - 1] / 1_000_000);
+    }
+
+    private record Result(double throughput, long p99Millis) {
+    }
+}
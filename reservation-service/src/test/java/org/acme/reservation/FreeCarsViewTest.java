@@ -0,0 +1,309 @@
+package org.acme.reservation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.logging.Log;
+import org.acme.reservation.availability.FreeCarsView;
+import org.acme.reservation.inventory.Car;
+import org.acme.reservation.inventory.InventoryChange;
+import org.acme.reservation.reservation.ConcurrentReservationsRepository;
+import org.acme.reservation.reservation.Reservation;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FreeCarsViewTest {
+
+    private final LocalDate today = LocalDate.now();
+
+    @Test
+    public void testViewMatchesFullRecomputation() throws Exception {
+        ConcurrentReservationsRepository repository =
+            new ConcurrentReservationsRepository();
+        FreeCarsView view = new FreeCarsView(repository,
+            new SimpleMeterRegistry());
+        List<Car> fleet = cars(0, 500);
+        view.inventoryChanged(new InventoryChange(fleet, List.of()));
+
+        Random random = new Random(13);
+        for (int i = 0; i < 2_000; i++) {
+            reserve(repository, view, random.nextInt(600), random);
+            if (i % 500 == 0) {
+                // the fleet changes while reservations come in
+                view.inventoryChanged(new InventoryChange(
+                    cars(500 + i / 500 * 25, 25),
+                    List.of(fleet.get(random.nextInt(fleet.size())))));
+            }
+            if (i % 200 == 0) {
+                view.lookup(today, today);
+            }
+        }
+
+        awaitBuilt(view);
+        Assertions.assertEquals(Set.of(), view.check());
+        Set<Long> reserved = repository.findReservedCarIds(today,
+            today.plusDays(6));
+        for (Car car : awaitWindow(view, today, today.plusDays(6))) {
+            Assertions.assertFalse(reserved.contains(car.id));
+        }
+    }
+
+    @Test
+    public void testRangesAskedForGetWindows() throws Exception {
+        ConcurrentReservationsRepository repository =
+            new ConcurrentReservationsRepository();
+        FreeCarsView view = new FreeCarsView(repository,
+            new SimpleMeterRegistry());
+        view.inventoryChanged(new InventoryChange(cars(0, 10), List.of()));
+        reserve(repository, view, 1, today.plusDays(3), today.plusDays(3));
+        reserve(repository, view, 2, today.plusDays(9), today.plusDays(9));
+        awaitBuilt(view);
+
+        // what users-service asks for by default
+        Assertions.assertEquals(9, view.lookup(today.plusDays(1),
+            today.plusDays(7)).orElseThrow().size());
+        Assertions.assertTrue(view.lookup(today.plusDays(8),
+            today.plusDays(10)).isEmpty());
+        Collection<Car> free = awaitWindow(view, today.plusDays(8),
+            today.plusDays(10));
+        Assertions.assertEquals(9, free.size());
+        Assertions.assertTrue(free.stream().noneMatch(car -> car.id == 2L));
+        // kept up to date like the others
+        reserve(repository, view, 3, today.plusDays(10), today.plusDays(12));
+        Assertions.assertEquals(8, free.size());
+        Assertions.assertTrue(view.lookup(today.minusDays(1), today)
+            .isEmpty());
+    }
+
+    @Test
+    public void testLookupOfALargeFleetMatchesRecomputation()
+        throws Exception {
+        int carCount = 5_000;
+        ConcurrentReservationsRepository repository =
+            new ConcurrentReservationsRepository();
+        FreeCarsView view = new FreeCarsView(repository,
+            new SimpleMeterRegistry());
+        List<Car> fleet = cars(0, carCount);
+        view.inventoryChanged(new InventoryChange(fleet, List.of()));
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            reserve(repository, view, random.nextInt(carCount), random);
+        }
+        awaitBuilt(view);
+
+        for (LocalDate endDate : List.of(today, today.plusDays(6))) {
+            Set<Long> reserved = repository.findReservedCarIds(today, endDate);
+            List<Car> free = new ArrayList<>();
+            for (Car car : fleet) {
+                if (!reserved.contains(car.id)) {
+                    free.add(car);
+                }
+            }
+            Assertions.assertEquals(count(free),
+                count(awaitWindow(view, today, endDate)));
+        }
+    }
+
+    /**
+     * A benchmark, run with {@code mvn test -Pbenchmark}: latency of a
+     * lookup against recomputing the free cars of the week the UI asks for
+     */
+    @Test
+    @Tag("benchmark")
+    public void testLookupIsFasterThanRecomputation() throws Exception {
+        int carCount = 20_000;
+        ConcurrentReservationsRepository repository =
+            new ConcurrentReservationsRepository();
+        FreeCarsView view = new FreeCarsView(repository,
+            new SimpleMeterRegistry());
+        List<Car> fleet = cars(0, carCount);
+        view.inventoryChanged(new InventoryChange(fleet, List.of()));
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            reserve(repository, view, random.nextInt(carCount), random);
+        }
+        LocalDate startDate = today.plusDays(1);
+        LocalDate endDate = today.plusDays(7);
+        awaitWindow(view, startDate, endDate);
+
+        long viewNanos = 0;
+        long computedNanos = 0;
+        for (int round = 0; round < 200; round++) {
+            long start = System.nanoTime();
+            int viewFree = count(view.lookup(startDate, endDate)
+                .orElseThrow());
+            viewNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Set<Long> reserved = repository.findReservedCarIds(startDate,
+                endDate);
+            List<Car> free = new ArrayList<>();
+            for (Car car : fleet) {
+                if (!reserved.contains(car.id)) {
+                    free.add(car);
+                }
+            }
+            int computedFree = count(free);
+            computedNanos += System.nanoTime() - start;
+            Assertions.assertEquals(computedFree, viewFree);
+        }
+        Log.infof("Free cars for 7 days, %d cars: view %d us, recomputed "
+                + "%d us per request", carCount, viewNanos / 200 / 1000,
+            computedNanos / 200 / 1000);
+    }
+
+    @Test
+    public void testWindowsAreBuiltOffTheCallingThread() throws Exception {
+        AtomicReference<Thread> builtOn = new AtomicReference<>();
+        ConcurrentReservationsRepository repository =
+            new ConcurrentReservationsRepository() {
+                @Override
+                public Set<Long> findReservedCarIds(LocalDate startDay,
+                                                    LocalDate endDay) {
+                    builtOn.set(Thread.currentThread());
+                    return super.findReservedCarIds(startDay, endDay);
+                }
+            };
+        FreeCarsView view = new FreeCarsView(repository,
+            new SimpleMeterRegistry());
+        view.inventoryChanged(new InventoryChange(cars(0, 10), List.of()));
+
+        Assertions.assertTrue(view.lookup(today, today).isEmpty());
+        awaitBuilt(view);
+        Assertions.assertNotSame(Thread.currentThread(), builtOn.get());
+
+        // inventory changes are fired on the event loop
+        builtOn.set(null);
+        view.inventoryChanged(new InventoryChange(cars(10, 1), List.of()));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (view.lookup(today, today).orElseThrow().size() < 11) {
+            Assertions.assertTrue(System.nanoTime() < deadline,
+                "The change was not applied");
+            Thread.sleep(1);
+        }
+        Assertions.assertNotSame(Thread.currentThread(), builtOn.get());
+    }
+
+    @Test
+    public void testCheckIgnoresReservationsSavedWhileComparing()
+        throws Exception {
+        AtomicBoolean racing = new AtomicBoolean(true);
+        FreeCarsView[] view = new FreeCarsView[1];
+        ConcurrentReservationsRepository repository =
+            new ConcurrentReservationsRepository() {
+                @Override
+                public List<Reservation> findAll() {
+                    List<Reservation> all = super.findAll();
+                    if (racing.getAndSet(false)) {
+                        // saved after the reservations were read, and applied
+                        // from another thread while the check runs
+                        CompletableFuture.runAsync(() ->
+                                reserve(this, view[0], 3, today, today))
+                            .orTimeout(5, TimeUnit.SECONDS).join();
+                    }
+                    return all;
+                }
+            };
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        view[0] = new FreeCarsView(repository, registry);
+        view[0].inventoryChanged(new InventoryChange(cars(0, 10), List.of()));
+        awaitBuilt(view[0]);
+
+        Assertions.assertEquals(Set.of(), view[0].check());
+        Assertions.assertEquals(0, registry
+            .counter("availability.view.mismatches").count());
+        Assertions.assertFalse(racing.get());
+    }
+
+    @Test
+    public void testCheckReportsReservationsTheViewMissed() throws Exception {
+        ConcurrentReservationsRepository repository =
+            new ConcurrentReservationsRepository();
+        FreeCarsView view = new FreeCarsView(repository,
+            new SimpleMeterRegistry());
+        view.inventoryChanged(new InventoryChange(cars(0, 10), List.of()));
+        awaitBuilt(view);
+        // saved without telling the view
+        reserve(repository, null, 4, today, today);
+
+        Assertions.assertEquals(Set.of(4L), view.check());
+        awaitBuilt(view);
+        Assertions.assertEquals(Set.of(), view.check());
+        Assertions.assertTrue(awaitWindow(view, today, today)
+            .stream().noneMatch(car -> car.id == 4L));
+    }
+
+    private void awaitBuilt(FreeCarsView view) throws InterruptedException {
+        awaitWindow(view, today, today);
+    }
+
+    /**
+     * Look up a range until the view has a window for it, which is built
+     * on a worker thread after the first lookup
+     */
+    private static Collection<Car> awaitWindow(FreeCarsView view,
+                                               LocalDate startDate,
+                                               LocalDate endDate)
+        throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        Optional<Collection<Car>> window;
+        while ((window = view.lookup(startDate, endDate)).isEmpty()) {
+            Assertions.assertTrue(System.nanoTime() < deadline,
+                "The view was not built");
+            Thread.sleep(1);
+        }
+        return window.get();
+    }
+
+    private static void reserve(ConcurrentReservationsRepository repository,
+                                FreeCarsView view, long carId,
+                                LocalDate startDay, LocalDate endDay) {
+        Reservation reservation = new Reservation();
+        reservation.carId = carId;
+        reservation.userId = "user";
+        reservation.startDay = startDay;
+        reservation.endDay = endDay;
+        repository.save(reservation);
+        if (view != null) {
+            view.reserved(reservation);
+        }
+    }
+
+    private void reserve(ConcurrentReservationsRepository repository,
+                         FreeCarsView view, long carId, Random random) {
+        Reservation reservation = new Reservation();
+        reservation.carId = carId;
+        reservation.userId = "user";
+        reservation.startDay = today.plusDays(random.nextInt(60) - 5);
+        reservation.endDay = reservation.startDay.plusDays(random.nextInt(3));
+        repository.saveIfAvailable(reservation).ifPresent(view::reserved);
+    }
+
+    private static List<Car> cars(long firstId, int count) {
+        List<Car> cars = new ArrayList<>(count);
+        for (long id = firstId; id < firstId + count; id++) {
+            cars.add(new Car(id, "PLATE" + id, "Skoda", "Octavia"));
+        }
+        return cars;
+    }
+
+    private static int count(Collection<Car> cars) {
+        Set<Long> ids = new HashSet<>();
+        for (Car car : cars) {
+            ids.add(car.id);
+        }
+        return ids.size();
+    }
+}
@@ -0,0 +1,132 @@
+package org.acme.reservation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.ClientErrorException;
+import org.acme.reservation.rest.IdempotentRequests;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IdempotentRequestsTest {
+
+    @Test
+    public void testConcurrentDuplicatesRunOnce() throws Exception {
+        IdempotentRequests requests = new IdempotentRequests(
+            new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return requests.execute("key", "request", () -> {
+                    sleep();
+                    return runs.incrementAndGet();
+                });
+            }));
+        }
+        start.countDown();
+        for (Future<Integer> result : results) {
+            Assertions.assertEquals(1, result.get(1, TimeUnit.MINUTES));
+        }
+        executor.shutdown();
+        Assertions.assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testRejectionsAreReplayedAndFailuresReleaseTheKey() {
+        IdempotentRequests requests = new IdempotentRequests(
+            new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+        AtomicInteger runs = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertThrows(ClientErrorException.class, () ->
+                requests.execute("rejected", "request", () -> {
+                    runs.incrementAndGet();
+                    throw new ClientErrorException(409);
+                }));
+        }
+        Assertions.assertEquals(1, runs.get());
+
+        Assertions.assertThrows(IllegalStateException.class, () ->
+            requests.execute("failed", "request", () -> {
+                throw new IllegalStateException();
+            }));
+        Assertions.assertEquals("done",
+            requests.execute("failed", "request", () -> "done"));
+    }
+
+    @Test
+    public void testOldestKeysAreEvictedBeyondTheBound() {
+        IdempotentRequests requests = new IdempotentRequests(
+            new SimpleMeterRegistry(), 2, Duration.ofMinutes(1));
+        AtomicInteger runs = new AtomicInteger();
+        for (String key : List.of("a", "b", "c", "a")) {
+            requests.execute(key, "request", runs::incrementAndGet);
+        }
+        // "a" was dropped to make room for "c", so it ran again
+        Assertions.assertEquals(4, runs.get());
+        requests.execute("c", "request", runs::incrementAndGet);
+        Assertions.assertEquals(4, runs.get());
+    }
+
+    @Test
+    public void testErrorsReleaseTheKeyForWaitingDuplicates()
+        throws Exception {
+        IdempotentRequests requests = new IdempotentRequests(
+            new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+        CountDownLatch running = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Object> first = executor.submit(() ->
+            requests.execute("key", "request", () -> {
+                running.countDown();
+                sleep();
+                throw new AssertionError("failed");
+            }));
+        running.await();
+
+        // the duplicate waits for the first one and fails with it
+        Assertions.assertThrows(AssertionError.class, () ->
+            requests.execute("key", "request", () -> "duplicate"));
+        Assertions.assertThrows(Exception.class,
+            () -> first.get(1, TimeUnit.MINUTES));
+        Assertions.assertEquals("retried",
+            requests.execute("key", "request", () -> "retried"));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testFailuresDoNotGrowTheQueue() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        IdempotentRequests requests = new IdempotentRequests(
+            registry, 10, Duration.ofMinutes(1));
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertThrows(IllegalStateException.class, () ->
+                requests.execute(UUID.randomUUID().toString(), "request",
+                    () -> {
+                        throw new IllegalStateException();
+                    }));
+        }
+        Assertions.assertTrue(registry.get("reservation.idempotency.keys")
+            .gauge().value() <= 10);
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.acme.reservation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.acme.reservation.rental.Rental;
+import org.acme.reservation.rental.RentalClient;
+import org.acme.reservation.rental.RentalOutbox;
+import org.acme.reservation.rental.RentalStart;
+import org.acme.reservation.reservation.DurableReservationsRepository;
+import org.acme.reservation.reservation.InMemoryReservationsRepository;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationArchive;
+import org.acme.reservation.reservation.ReservationsRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Objects;
+
+public class RentalOutboxTest {
+
+    @Test
+    public void testFailedBatchIsRetriedAfterBackoff() throws Exception {
+        RentalClient client = Mockito.mock(RentalClient.class);
+        Mockito.when(client.startAll(ArgumentMatchers.anyList()))
+            .thenThrow(new RuntimeException("rental-service is down"))
+            .thenReturn(List.of(new Rental(1L, "alice", 1L, LocalDate.now()),
+                new Rental(2L, "bob", 2L, LocalDate.now())));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RentalOutbox outbox = new RentalOutbox(client,
+            new InMemoryReservationsRepository(), registry, 10,
+            Duration.ofMillis(50), Duration.ofSeconds(1));
+        outbox.enqueue(reservation(1L, "alice"));
+        outbox.enqueue(reservation(2L, "bob"));
+
+        outbox.deliver();
+        Assertions.assertEquals(2, outbox.depth());
+        // still backing off
+        outbox.deliver();
+        Mockito.verify(client, Mockito.times(1))
+            .startAll(ArgumentMatchers.anyList());
+
+        Thread.sleep(100);
+        outbox.deliver();
+        Assertions.assertEquals(0, outbox.depth());
+        ArgumentCaptor<List<RentalStart>> sent =
+            ArgumentCaptor.captor();
+        Mockito.verify(client, Mockito.times(2)).startAll(sent.capture());
+        // a retry is sent in the trace of the booking, like the first try
+        List<String> traces = traceIds(sent.getAllValues().get(0));
+        Assertions.assertEquals(2, traces.stream().distinct()
+            .filter(Objects::nonNull).count());
+        Assertions.assertEquals(traces,
+            traceIds(sent.getAllValues().get(1)));
+        Assertions.assertEquals(2, registry.get("rental.outbox.delivery")
+            .timer().count());
+        Assertions.assertEquals(1, registry.get("rental.outbox.failures")
+            .counter().count());
+    }
+
+    @Test
+    public void testUndeliveredStartIsSentAfterRestart(@TempDir Path directory) {
+        RentalClient down = Mockito.mock(RentalClient.class);
+        Mockito.when(down.startAll(ArgumentMatchers.anyList()))
+            .thenThrow(new RuntimeException("rental-service is down"));
+        DurableReservationsRepository repository =
+            new DurableReservationsRepository(new ReservationArchive(),
+                directory, true, 2);
+        RentalOutbox outbox = outbox(down, repository);
+        Reservation today = repository.save(reservation(1L, "alice"));
+        outbox.enqueue(today);
+        Reservation later = reservation(2L, "bob");
+        later.startDay = later.startDay.plusDays(3);
+        later.endDay = later.startDay;
+        // the second save also writes a snapshot
+        repository.save(later);
+        outbox.deliver();
+        repository.close();
+
+        RentalClient up = Mockito.mock(RentalClient.class);
+        Mockito.when(up.startAll(ArgumentMatchers.anyList()))
+            .thenReturn(List.of(new Rental(1L, "alice", today.id,
+                LocalDate.now())));
+        repository = new DurableReservationsRepository(
+            new ReservationArchive(), directory, true, 2);
+        outbox = outbox(up, repository);
+        Assertions.assertEquals(1, outbox.depth());
+        outbox.deliver();
+        Mockito.verify(up).startAll(ArgumentMatchers.argThat(starts ->
+            starts.size() == 1 &&
+                starts.get(0).reservationId.equals(today.id)));
+        repository.close();
+
+        // a confirmed start is not sent again
+        repository = new DurableReservationsRepository(
+            new ReservationArchive(), directory, true, 2);
+        Assertions.assertEquals(0, outbox(up, repository).depth());
+        repository.close();
+    }
+
+    private static RentalOutbox outbox(RentalClient client,
+                                       ReservationsRepository repository) {
+        return new RentalOutbox(client, repository, new SimpleMeterRegistry(),
+            10, Duration.ofMillis(50), Duration.ofSeconds(1));
+    }
+
+    private static List<String> traceIds(List<RentalStart> starts) {
+        return starts.stream().map(start -> start.traceId).toList();
+    }
+
+    private static Reservation reservation(Long id, String userId) {
+        Reservation reservation = new Reservation();
+        reservation.id = id;
+        reservation.userId = userId;
+        reservation.carId = id;
+        reservation.startDay = LocalDate.now();
+        reservation.endDay = LocalDate.now();
+        return reservation;
+    }
+}
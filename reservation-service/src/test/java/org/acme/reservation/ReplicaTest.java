@@ -0,0 +1,180 @@
+package org.acme.reservation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+import org.acme.reservation.replication.ChangeBatch;
+import org.acme.reservation.replication.LeaderClient;
+import org.acme.reservation.replication.Replica;
+import org.acme.reservation.replication.ReplicationLog;
+import org.acme.reservation.replication.ReplicationSnapshot;
+import org.acme.reservation.reservation.InMemoryReservationsRepository;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationArchive;
+import org.acme.reservation.reservation.ReservationsRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+public class ReplicaTest {
+
+    private final ReservationsRepository leaderRepository =
+        new InMemoryReservationsRepository();
+    private final ReservationArchive leaderArchive = new ReservationArchive();
+
+    @Test
+    public void testFollowerReplaysChangesInBatches() {
+        ReplicationLog log = new ReplicationLog(new SimpleMeterRegistry(), 10);
+        book(log, 5);
+        ReservationsRepository repository =
+            new InMemoryReservationsRepository();
+        Replica replica = new Replica(repository, new ReservationArchive(),
+            new SimpleMeterRegistry(), leader(log), null, 2,
+            Duration.ofMinutes(1));
+
+        Assertions.assertThrows(ServiceUnavailableException.class,
+            replica::checkFresh);
+        replica.pull();
+
+        Assertions.assertEquals(ids(leaderRepository), ids(repository));
+        Assertions.assertEquals(0, replica.lag());
+        replica.checkFresh();
+
+        book(log, 3);
+        replica.pull();
+        Assertions.assertEquals(8, repository.count());
+        // ids continue after the replicated ones
+        Assertions.assertTrue(repository.save(reservation(99)).id > 8);
+    }
+
+    @Test
+    public void testFollowerBehindTheKeptChangesLoadsSnapshot() {
+        ReplicationLog log = new ReplicationLog(new SimpleMeterRegistry(), 3);
+        book(log, 5);
+        ReservationsRepository repository =
+            new InMemoryReservationsRepository();
+        // already replicated before a restart
+        repository.replicate(List.of(leaderRepository.findAll().get(0)));
+        leaderRepository.archiveEndedBefore(LocalDate.of(2025, 1, 3),
+            leaderArchive);
+        ReservationArchive archive = new ReservationArchive();
+        Replica replica = new Replica(repository, archive,
+            new SimpleMeterRegistry(), leader(log), null, 100,
+            Duration.ofMinutes(1));
+
+        replica.pull();
+        book(log, 2);
+        replica.pull();
+
+        // archived or not, every reservation is there exactly once
+        Set<Long> leaderIds = ids(leaderRepository);
+        leaderIds.addAll(ids(leaderArchive.findAll()));
+        Set<Long> followerIds = ids(repository);
+        followerIds.addAll(ids(archive.findAll()));
+        Assertions.assertEquals(leaderIds, followerIds);
+        Assertions.assertEquals(7, repository.count() + archive.size());
+        replica.checkFresh();
+    }
+
+    @Test
+    public void testFollowerOfRestartedLeaderLoadsSnapshot() {
+        AtomicReference<ReplicationLog> log = new AtomicReference<>(
+            new ReplicationLog(new SimpleMeterRegistry(), 100));
+        book(log.get(), 5);
+        ReservationsRepository repository =
+            new InMemoryReservationsRepository();
+        Replica replica = new Replica(repository, new ReservationArchive(),
+            new SimpleMeterRegistry(), leader(log::get), null, 100,
+            Duration.ofMinutes(1));
+        replica.pull();
+
+        // the leader keeps its reservations, its log starts over
+        log.set(new ReplicationLog(new SimpleMeterRegistry(), 100));
+        book(log.get(), 6);
+        replica.pull();
+
+        Assertions.assertEquals(ids(leaderRepository), ids(repository));
+        Assertions.assertEquals(11, repository.count());
+        replica.checkFresh();
+    }
+
+    @Test
+    public void testReadsAreRefusedWhileLeaderIsUnreachable() {
+        LeaderClient unreachable = new LeaderClient() {
+            @Override
+            public ChangeBatch changes(long after, int limit) {
+                throw new IllegalStateException("Connection refused");
+            }
+
+            @Override
+            public ReplicationSnapshot snapshot() {
+                throw new IllegalStateException("Connection refused");
+            }
+        };
+        Replica replica = new Replica(new InMemoryReservationsRepository(),
+            new ReservationArchive(), new SimpleMeterRegistry(),
+            unreachable, null, 100, Duration.ofMinutes(1));
+
+        replica.pull();
+
+        Assertions.assertThrows(ServiceUnavailableException.class,
+            replica::checkFresh);
+    }
+
+    private void book(ReplicationLog log, int count) {
+        int offset = leaderRepository.count() + leaderArchive.size();
+        for (int i = 0; i < count; i++) {
+            log.append(List.of(leaderRepository.save(
+                reservation(offset + i))));
+        }
+    }
+
+    private LeaderClient leader(ReplicationLog log) {
+        return leader(() -> log);
+    }
+
+    private LeaderClient leader(Supplier<ReplicationLog> log) {
+        return new LeaderClient() {
+            @Override
+            public ChangeBatch changes(long after, int limit) {
+                ChangeBatch batch = log.get().changesAfter(after, limit);
+                if (batch == null) {
+                    throw new WebApplicationException(Response.Status.GONE);
+                }
+                return batch;
+            }
+
+            @Override
+            public ReplicationSnapshot snapshot() {
+                return log.get().snapshot(leaderRepository, leaderArchive);
+            }
+        };
+    }
+
+    private static Reservation reservation(int day) {
+        Reservation reservation = new Reservation();
+        reservation.carId = (long) day;
+        reservation.userId = "user";
+        reservation.startDay = LocalDate.of(2025, 1, 1).plusDays(day);
+        reservation.endDay = reservation.startDay;
+        return reservation;
+    }
+
+    private static Set<Long> ids(ReservationsRepository repository) {
+        return ids(repository.findAll());
+    }
+
+    private static Set<Long> ids(Collection<Reservation> reservations) {
+        return reservations.stream().map(r -> r.id)
+            .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,177 @@
+package org.acme.reservation;
+
+import io.quarkus.logging.Log;
+import org.acme.reservation.reservation.ConcurrentReservationsRepository;
+import org.acme.reservation.reservation.InMemoryReservationsRepository;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationsRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+public class ReservationConflictTest {
+
+    private static final LocalDate DAY = LocalDate.parse("2030-01-01");
+
+    @Test
+    public void testOnlyOneOfConcurrentOverlappingBookingsWins()
+        throws Exception {
+        for (ReservationsRepository repository : List.of(
+            new InMemoryReservationsRepository(),
+            new ConcurrentReservationsRepository())) {
+            AtomicInteger winners = new AtomicInteger();
+            runConcurrently(16, thread -> {
+                // every booking overlaps with all the others on DAY + 5
+                Reservation reservation = reservation(7L,
+                    DAY.plusDays(thread % 5), DAY.plusDays(5 + thread % 3));
+                if (repository.saveIfAvailable(reservation).isPresent()) {
+                    winners.incrementAndGet();
+                }
+            });
+            Assertions.assertEquals(1, winners.get());
+            Assertions.assertEquals(1, repository.findAll().size());
+        }
+    }
+
+    @Test
+    public void testBookingsOfDifferentCarsNeverConflict() throws Exception {
+        int threads = 8;
+        int bookingsPerThread = 5_000;
+        ConcurrentReservationsRepository repository =
+            new ConcurrentReservationsRepository();
+        AtomicInteger conflicts = new AtomicInteger();
+        runConcurrently(threads, thread -> {
+            // each thread owns its cars and books consecutive weeks
+            for (int i = 0; i < bookingsPerThread; i++) {
+                long carId = thread * 16L + i % 16;
+                LocalDate start = DAY.plusDays(i / 16 * 7L);
+                if (repository.saveIfAvailable(reservation(carId,
+                    start, start.plusDays(6))).isEmpty()) {
+                    conflicts.incrementAndGet();
+                }
+            }
+        });
+        Assertions.assertEquals(0, conflicts.get());
+        Assertions.assertEquals(threads * bookingsPerThread,
+            repository.findAll().size());
+        assertNoDoubleBookings(repository.findAll());
+    }
+
+    /**
+     * A benchmark, run with {@code mvn test -Pbenchmark}: bookings per
+     * second of different cars for 1, 2, 4, ... threads up to the number
+     * of cores
+     */
+    @Test
+    @Tag("benchmark")
+    public void testBookingsOfDifferentCarsScaleWithThreads()
+        throws Exception {
+        int bookingsPerThread = 50_000;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ConcurrentReservationsRepository repository =
+                new ConcurrentReservationsRepository();
+            long started = System.nanoTime();
+            runConcurrently(threads, thread -> {
+                for (int i = 0; i < bookingsPerThread; i++) {
+                    long carId = thread * 16L + i % 16;
+                    LocalDate start = DAY.plusDays(i / 16 * 7L);
+                    repository.saveIfAvailable(reservation(carId, start,
+                        start.plusDays(6)));
+                }
+            });
+            long elapsed = System.nanoTime() - started;
+            Log.infof("%d thread(s): %.0f bookings/s", threads,
+                threads * bookingsPerThread * 1e9 / elapsed);
+            Assertions.assertEquals(threads * bookingsPerThread,
+                repository.count());
+        }
+    }
+
+    @Test
+    public void testContendedBookingsNeverDoubleBookACar() throws Exception {
+        for (ReservationsRepository repository : List.of(
+            new InMemoryReservationsRepository(),
+            new ConcurrentReservationsRepository())) {
+            AtomicInteger winners = new AtomicInteger();
+            runConcurrently(8, thread -> {
+                Random random = new Random(thread);
+                for (int i = 0; i < 2_000; i++) {
+                    LocalDate start = DAY.plusDays(random.nextInt(60));
+                    if (repository.saveIfAvailable(reservation(
+                        (long) random.nextInt(4), start,
+                        start.plusDays(random.nextInt(5)))).isPresent()) {
+                        winners.incrementAndGet();
+                    }
+                }
+            });
+            Assertions.assertEquals(winners.get(),
+                repository.findAll().size());
+            assertNoDoubleBookings(repository.findAll());
+        }
+    }
+
+    private static void assertNoDoubleBookings(
+        List<Reservation> reservations) {
+        Map<Long, List<Reservation>> byCar = reservations.stream()
+            .collect(Collectors.groupingBy(reservation -> reservation.carId));
+        for (List<Reservation> booked : byCar.values()) {
+            booked.sort(Comparator.comparing(
+                reservation -> reservation.startDay));
+            for (int i = 1; i < booked.size(); i++) {
+                Assertions.assertTrue(booked.get(i).startDay
+                        .isAfter(booked.get(i - 1).endDay),
+                    "Car " + booked.get(i).carId + " is booked twice on "
+                        + booked.get(i).startDay);
+            }
+        }
+    }
+
+    private static Reservation reservation(Long carId, LocalDate startDay,
+                                           LocalDate endDay) {
+        Reservation reservation = new Reservation();
+        reservation.carId = carId;
+        reservation.userId = "user";
+        reservation.startDay = startDay;
+        reservation.endDay = endDay;
+        return reservation;
+    }
+
+    private static void runConcurrently(int threads, ThreadTask task)
+        throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                task.run(thread);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+    }
+
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+}
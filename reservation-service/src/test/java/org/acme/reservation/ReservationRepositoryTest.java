@@ -10,6 +10,7 @@ import jakarta.inject.Inject;
 
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
 
 @QuarkusTest
 public class ReservationRepositoryTest {
@@ -28,4 +29,58 @@ public class ReservationRepositoryTest {
         Assertions.assertNotNull(reservation.id);
         Assertions.assertTrue(repository.findAll().contains(reservation));
     }
+
+    @Test
+    public void testFindReservedCarIds() {
+        Reservation reservation = new Reservation();
+        reservation.startDay = LocalDate.parse("2030-06-10");
+        reservation.endDay = LocalDate.parse("2030-06-15");
+        reservation.carId = 385L;
+        repository.save(reservation);
+
+        Assertions.assertTrue(repository.findReservedCarIds(
+            LocalDate.parse("2030-06-15"), LocalDate.parse("2030-06-20"))
+            .contains(385L));
+        Assertions.assertTrue(repository.findReservedCarIds(
+            LocalDate.parse("2030-06-01"), LocalDate.parse("2030-06-30"))
+            .contains(385L));
+        Assertions.assertFalse(repository.findReservedCarIds(
+            LocalDate.parse("2030-06-16"), LocalDate.parse("2030-06-20"))
+            .contains(385L));
+        Assertions.assertFalse(repository.findReservedCarIds(
+            LocalDate.parse("2030-06-01"), LocalDate.parse("2030-06-09"))
+            .contains(385L));
+    }
+
+    @Test
+    public void testFindByUser() {
+        Reservation reservation = new Reservation();
+        reservation.startDay = LocalDate.parse("2030-07-01");
+        reservation.endDay = LocalDate.parse("2030-07-02");
+        reservation.carId = 386L;
+        reservation.userId = "alice";
+        repository.save(reservation);
+
+        Assertions.assertTrue(repository.findByUser("alice")
+            .contains(reservation));
+        Assertions.assertFalse(repository.findByUser("bob")
+            .contains(reservation));
+    }
+
+    @Test
+    public void testFindOccupiedDays() {
+        Reservation reservation = new Reservation();
+        reservation.startDay = LocalDate.parse("2030-08-01");
+        reservation.endDay = LocalDate.parse("2030-10-31");
+        reservation.carId = 387L;
+        repository.save(reservation);
+
+        BitSet occupied = repository.findOccupiedDays(
+            LocalDate.parse("2030-07-30"), LocalDate.parse("2030-11-02"))
+            .get(387L);
+        // July 30 and 31 free, 92 days reserved, November 1 and 2 free
+        Assertions.assertEquals(2, occupied.nextSetBit(0));
+        Assertions.assertEquals(92, occupied.cardinality());
+        Assertions.assertEquals(94, occupied.nextClearBit(2));
+    }
 }
@@ -7,20 +7,31 @@ import io.quarkus.test.junit.QuarkusMock;
 import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.RestAssured;
 import io.restassured.http.ContentType;
+import io.smallrye.mutiny.Uni;
+import jakarta.inject.Inject;
+import org.acme.reservation.inventory.CachingInventoryClient;
 import org.acme.reservation.inventory.Car;
 import org.acme.reservation.inventory.GraphQLInventoryClient;
 import org.acme.reservation.reservation.Reservation;
 import org.acme.reservation.rest.ReservationResource;
+import org.acme.reservation.shard.PeerAuthentication;
+import org.acme.reservation.tracing.Tracing;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
 import java.net.URL;
 import java.time.LocalDate;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 
 @QuarkusTest
 public class ReservationResourceTest {
@@ -33,6 +44,9 @@ public class ReservationResourceTest {
     @TestHTTPResource("availability")
     URL availability;
 
+    @Inject
+    CachingInventoryClient inventoryCache;
+
     @Test
     public void testReservationIds() {
         Reservation reservation = new Reservation();
@@ -56,13 +70,7 @@ public class ReservationResourceTest {
         DisabledOnIntegrationTest.ArtifactType.NATIVE_BINARY)
     @Test
     public void testMakingAReservationAndCheckAvailability() {
-        GraphQLInventoryClient mock =
-            Mockito.mock(GraphQLInventoryClient.class);
-            Car peugeot = new Car(1L, "ABC123", "Peugeot", "406");
-        Mockito.when(mock.allCars())
-            .thenReturn(Collections.singletonList(peugeot));
-        QuarkusMock.installMockForType(mock,
-            GraphQLInventoryClient.class);
+        installFleetOfOnePeugeot();
 
         String startDate = "2022-01-01";
         String endDate = "2022-01-10";
@@ -98,4 +106,228 @@ public class ReservationResourceTest {
             .body("findAll { car -> car.id == " + car.id + "}", hasSize(0));
     }
 
+    @Test
+    public void testOverlappingReservationIsRejected() {
+        Reservation reservation = new Reservation();
+        reservation.carId = 23456L;
+        reservation.startDay = LocalDate.parse("2025-04-01");
+        reservation.endDay = LocalDate.parse("2025-04-05");
+        RestAssured.given()
+            .contentType(ContentType.JSON)
+            .body(reservation)
+            .when().post(reservationResource)
+            .then().statusCode(200);
+
+        reservation.startDay = LocalDate.parse("2025-04-05");
+        reservation.endDay = LocalDate.parse("2025-04-08");
+        RestAssured.given()
+            .contentType(ContentType.JSON)
+            .body(reservation)
+            .when().post(reservationResource)
+            .then().statusCode(409);
+    }
+
+    @Test
+    public void testRetriedReservationWithSameKeyIsNotBookedAgain() {
+        Reservation reservation = new Reservation();
+        reservation.carId = 45678L;
+        reservation.startDay = LocalDate.parse("2025-06-01");
+        reservation.endDay = LocalDate.parse("2025-06-02");
+        int id = RestAssured.given()
+            .contentType(ContentType.JSON)
+            .header("Idempotency-Key", "retry-1")
+            .body(reservation)
+            .when().post(reservationResource)
+            .then().statusCode(200)
+            .extract().path("id");
+
+        // without the key the retry would conflict with the first booking
+        RestAssured.given()
+            .contentType(ContentType.JSON)
+            .header("Idempotency-Key", "retry-1")
+            .body(reservation)
+            .when().post(reservationResource)
+            .then().statusCode(200)
+            .body("id", is(id));
+
+        reservation.endDay = LocalDate.parse("2025-06-03");
+        RestAssured.given()
+            .contentType(ContentType.JSON)
+            .header("Idempotency-Key", "retry-1")
+            .body(reservation)
+            .when().post(reservationResource)
+            .then().statusCode(422);
+    }
+
+    @Test
+    public void testBatchReservationReportsEachConflict() {
+        Reservation first = new Reservation();
+        first.carId = 34567L;
+        first.startDay = LocalDate.parse("2025-05-01");
+        first.endDay = LocalDate.parse("2025-05-03");
+        Reservation overlapping = new Reservation();
+        overlapping.carId = 34567L;
+        overlapping.startDay = LocalDate.parse("2025-05-03");
+        overlapping.endDay = LocalDate.parse("2025-05-04");
+        Reservation otherCar = new Reservation();
+        otherCar.carId = 34568L;
+        otherCar.startDay = LocalDate.parse("2025-05-03");
+        otherCar.endDay = LocalDate.parse("2025-05-04");
+
+        RestAssured.given()
+            .contentType(ContentType.JSON)
+            .body(List.of(first, overlapping, otherCar))
+            .when().post(reservationResource + "/batch")
+            .then().statusCode(200)
+            .body("status", contains("CREATED", "CONFLICT", "CREATED"))
+            .body("[0].reservation.id", notNullValue())
+            .body("[1].reservation.id", nullValue());
+    }
+
+    @Test
+    public void testLocalEndpointsOnlyAnswerOtherNodes() {
+        Reservation reservation = new Reservation();
+        reservation.carId = 56789L;
+        reservation.startDay = LocalDate.parse("2025-07-01");
+        reservation.endDay = LocalDate.parse("2025-07-02");
+        RestAssured.given()
+            .contentType(ContentType.JSON)
+            .queryParam("userId", "someone-else")
+            .body(reservation)
+            .when().post(reservationResource + "/local")
+            .then().statusCode(403);
+        RestAssured.given()
+            .header(PeerAuthentication.HEADER, "guessed")
+            .queryParam("userId", "someone-else")
+            .when().get(reservationResource + "/local/all")
+            .then().statusCode(403);
+
+        RestAssured.given()
+            .header(PeerAuthentication.HEADER, "test-peer-secret")
+            .queryParam("userId", "someone-else")
+            .when().get(reservationResource + "/local/all")
+            .then().statusCode(200);
+    }
+
+    @DisabledOnIntegrationTest(forArtifactTypes =
+        DisabledOnIntegrationTest.ArtifactType.NATIVE_BINARY)
+    @Test
+    public void testStreamingAvailabilityLeavesOutReservedCars() {
+        Car peugeot = installFleetOfOnePeugeot();
+
+        Reservation reservation = new Reservation();
+        reservation.carId = peugeot.id;
+        reservation.startDay = LocalDate.parse("2023-02-01");
+        reservation.endDay = LocalDate.parse("2023-02-05");
+        RestAssured.given()
+            .contentType(ContentType.JSON)
+            .body(reservation)
+            .when().post(reservationResource)
+            .then().statusCode(200);
+
+        String free = RestAssured.given()
+            .queryParam("startDate", "2023-02-06")
+            .queryParam("endDate", "2023-02-07")
+            .when().get(availability + "/stream")
+            .then().statusCode(200)
+            .contentType("application/x-ndjson")
+            .extract().asString();
+        Assertions.assertTrue(free.contains("\"ABC123\""));
+
+        String reserved = RestAssured.given()
+            .queryParam("startDate", "2023-02-05")
+            .queryParam("endDate", "2023-02-07")
+            .when().get(availability + "/stream")
+            .then().statusCode(200)
+            .extract().asString();
+        Assertions.assertFalse(reserved.contains("\"ABC123\""));
+    }
+
+    @DisabledOnIntegrationTest(forArtifactTypes =
+        DisabledOnIntegrationTest.ArtifactType.NATIVE_BINARY)
+    @Test
+    public void testCalendarCountsFreeCarsPerDay() {
+        Car peugeot = installFleetOfOnePeugeot();
+
+        Reservation reservation = new Reservation();
+        reservation.carId = peugeot.id;
+        reservation.startDay = LocalDate.parse("2024-03-02");
+        reservation.endDay = LocalDate.parse("2024-03-03");
+        RestAssured.given()
+            .contentType(ContentType.JSON)
+            .body(reservation)
+            .when().post(reservationResource)
+            .then().statusCode(200);
+
+        RestAssured.given()
+            .queryParam("startDate", "2024-03-01")
+            .queryParam("endDate", "2024-03-04")
+            .when().get(reservationResource + "/calendar")
+            .then().statusCode(200)
+            .body("freeCarsPerDay", contains(1, 0, 0, 1))
+            .body("cars.find { it.carId == 1 }.freeDays",
+                contains("2024-03-01", "2024-03-04"));
+    }
+
+    @DisabledOnIntegrationTest
+    @Test
+    public void testTraceIdReachesInventoryAndIsRecorded() {
+        GraphQLInventoryClient mock =
+            Mockito.mock(GraphQLInventoryClient.class);
+        AtomicReference<String> seenByInventory = new AtomicReference<>();
+        Mockito.when(mock.inventoryVersionAsync()).thenAnswer(invocation -> {
+            seenByInventory.set(Tracing.traceId());
+            return Uni.createFrom().item(0L);
+        });
+        Mockito.when(mock.carsAsync(Mockito.any(), Mockito.anyInt(),
+            Mockito.any()))
+            .thenReturn(Uni.createFrom().item(List.of()));
+        QuarkusMock.installMockForType(mock,
+            GraphQLInventoryClient.class);
+        inventoryCache.invalidate();
+
+        try {
+            RestAssured.given()
+                .header(Tracing.HEADER, "feedfacecafebeef")
+                .queryParam("startDate", "2026-01-01")
+                .queryParam("endDate", "2026-01-02")
+                .when().get(availability)
+                .then().statusCode(200)
+                .header(Tracing.HEADER, "feedfacecafebeef");
+        } finally {
+            // do not leave the empty fleet to the other tests
+            inventoryCache.invalidate();
+        }
+
+        Assertions.assertEquals("feedfacecafebeef", seenByInventory.get());
+        RestAssured.when().get("/debug/spans")
+            .then().statusCode(200)
+            .body("find { it.traceId == 'feedfacecafebeef' }.name",
+                is("GET /reservation/availability"));
+        RestAssured.when().get("/q/metrics")
+            .then().statusCode(200)
+            .body(containsString("endpoint_latency_seconds_bucket"));
+    }
+
+    /**
+     * Make inventory-service answer with a single car
+     * @return that car
+     */
+    private static Car installFleetOfOnePeugeot() {
+        GraphQLInventoryClient mock =
+            Mockito.mock(GraphQLInventoryClient.class);
+        Car peugeot = new Car(1L, "ABC123", "Peugeot", "406");
+        Mockito.when(mock.cars(Mockito.any(), Mockito.anyInt(),
+            Mockito.any()))
+            .thenReturn(Collections.singletonList(peugeot));
+        Mockito.when(mock.carsAsync(Mockito.any(), Mockito.anyInt(),
+            Mockito.any()))
+            .thenReturn(Uni.createFrom()
+                .item(Collections.singletonList(peugeot)));
+        Mockito.when(mock.inventoryVersionAsync())
+            .thenReturn(Uni.createFrom().item(0L));
+        QuarkusMock.installMockForType(mock,
+            GraphQLInventoryClient.class);
+        return peugeot;
+    }
 }
@@ -0,0 +1,71 @@
+package org.acme.reservation;
+
+import org.acme.reservation.reservation.ConcurrentReservationsRepository;
+import org.acme.reservation.reservation.InMemoryReservationsRepository;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationArchive;
+import org.acme.reservation.reservation.ReservationsRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+public class ReservationTieringTest {
+
+    private static final LocalDate DAY = LocalDate.parse("2030-01-01");
+
+    @Test
+    public void testEndedReservationsMoveToArchive() {
+        for (ReservationsRepository repository : List.of(
+            new InMemoryReservationsRepository(),
+            new ConcurrentReservationsRepository())) {
+            ReservationArchive archive = new ReservationArchive();
+            // car 1: an ended booking right before a current one, which the
+            // interval index has merged into one interval
+            repository.save(reservation(1L, "alice", DAY.minusDays(5),
+                DAY.minusDays(1)));
+            repository.save(reservation(1L, "alice", DAY, DAY.plusDays(3)));
+            repository.save(reservation(2L, "bob", DAY.minusDays(9),
+                DAY.minusDays(8)));
+            repository.save(reservation(3L, "bob", DAY.plusDays(1),
+                DAY.plusDays(2)));
+
+            Assertions.assertEquals(2,
+                repository.archiveEndedBefore(DAY, archive));
+
+            Assertions.assertEquals(2, repository.findAll().size());
+            Assertions.assertEquals(1, repository.findByUser("alice").size());
+            Assertions.assertEquals(1, repository.findByUser("bob").size());
+            Assertions.assertEquals(Set.of(),
+                repository.findReservedCarIds(DAY.minusDays(9),
+                    DAY.minusDays(1)));
+            Assertions.assertEquals(Set.of(1L, 3L),
+                repository.findReservedCarIds(DAY, DAY.plusDays(3)));
+            Assertions.assertTrue(repository.findOccupiedDays(
+                DAY.minusDays(9), DAY.minusDays(1)).isEmpty());
+
+            Assertions.assertEquals(2, archive.size());
+            Reservation archived = archive.findByUser("alice").get(0);
+            Assertions.assertEquals(1L, archived.carId);
+            Assertions.assertEquals(DAY.minusDays(5), archived.startDay);
+            Assertions.assertEquals(DAY.minusDays(1), archived.endDay);
+            Assertions.assertEquals(1, archive.findByUser("bob").size());
+
+            // nothing is moved twice
+            Assertions.assertEquals(0,
+                repository.archiveEndedBefore(DAY, archive));
+        }
+    }
+
+    private static Reservation reservation(Long carId, String userId,
+                                           LocalDate start, LocalDate end) {
+        Reservation reservation = new Reservation();
+        reservation.carId = carId;
+        reservation.userId = userId;
+        reservation.startDay = start;
+        reservation.endDay = end;
+        return reservation;
+    }
+}
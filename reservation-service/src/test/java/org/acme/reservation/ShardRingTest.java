@@ -0,0 +1,183 @@
+package org.acme.reservation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.core.SecurityContext;
+import org.acme.reservation.inventory.Car;
+import org.acme.reservation.replication.Replica;
+import org.acme.reservation.reservation.InMemoryReservationsRepository;
+import org.acme.reservation.reservation.Reservation;
+import org.acme.reservation.reservation.ReservationIds;
+import org.acme.reservation.reservation.ReservationsRepository;
+import org.acme.reservation.rest.ReservationResource;
+import org.acme.reservation.rest.ReservationResult;
+import org.acme.reservation.shard.ShardClient;
+import org.acme.reservation.shard.ShardRing;
+import org.acme.reservation.shard.Shards;
+import org.acme.reservation.shard.TimedClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ShardRingTest {
+
+    private static final int CARS = 30_000;
+
+    private final List<String> nodes = List.of("http://localhost:8081",
+        "http://localhost:8091", "http://localhost:8101");
+
+    @Test
+    public void testCarsAreSpreadEvenly() {
+        ShardRing ring = new ShardRing(nodes, 128);
+        int[] owned = new int[nodes.size()];
+        for (long carId = 1; carId <= CARS; carId++) {
+            owned[ring.ownerOf(carId)]++;
+        }
+        for (int count : owned) {
+            Assertions.assertTrue(Math.abs(count - CARS / 3) < CARS / 12,
+                "Uneven split " + Arrays.toString(owned));
+        }
+    }
+
+    @Test
+    public void testAddingNodeOnlyMovesCarsToIt() {
+        ShardRing before = new ShardRing(nodes, 128);
+        List<String> grown = new ArrayList<>(nodes);
+        grown.add("http://localhost:8111");
+        ShardRing after = new ShardRing(grown, 128);
+
+        int moved = 0;
+        for (long carId = 1; carId <= CARS; carId++) {
+            if (before.ownerOf(carId) != after.ownerOf(carId)) {
+                Assertions.assertEquals(3, after.ownerOf(carId));
+                moved++;
+            }
+        }
+        Assertions.assertTrue(Math.abs(moved - CARS / 4) < CARS / 12,
+            moved + " cars moved");
+    }
+
+    @Test
+    public void testNodesHandOutDisjointIds() {
+        Set<Long> ids = new HashSet<>();
+        for (int node = 0; node < 3; node++) {
+            ReservationIds sequence = new ReservationIds(3, node);
+            sequence.continueAfter(10);
+            for (int i = 0; i < 100; i++) {
+                long id = sequence.next();
+                Assertions.assertTrue(id > 10);
+                Assertions.assertEquals(node, id % 3);
+                Assertions.assertTrue(ids.add(id));
+            }
+        }
+        ReservationIds single = new ReservationIds();
+        Assertions.assertEquals(1, single.next());
+        Assertions.assertEquals(2, single.next());
+    }
+
+    @Test
+    public void testNodeOnlyBooksCarsItOwns() {
+        Shards shards = Mockito.mock(Shards.class);
+        Mockito.when(shards.owns(7L)).thenReturn(false);
+        Mockito.when(shards.ownerOf(7L)).thenReturn(1);
+        ReservationsRepository repository =
+            new InMemoryReservationsRepository();
+        ReservationResource resource = new ReservationResource(repository,
+            null, null, null, null, null, null, shards,
+            Mockito.mock(Replica.class));
+        Reservation reservation = new Reservation();
+        reservation.carId = 7L;
+        reservation.startDay = LocalDate.parse("2025-01-01");
+        reservation.endDay = LocalDate.parse("2025-01-02");
+
+        Assertions.assertThrows(BadRequestException.class,
+            () -> resource.makeLocal(reservation, "user", null));
+        Assertions.assertThrows(BadRequestException.class,
+            () -> resource.makeAllLocal(List.of(reservation), "user"));
+        Assertions.assertEquals(0, repository.count());
+    }
+
+    @Test
+    public void testBatchKeepsThePartsOfReachableNodes() throws Exception {
+        Shards shards = Mockito.mock(Shards.class);
+        Mockito.when(shards.enabled()).thenReturn(true);
+        Mockito.when(shards.size()).thenReturn(2);
+        Mockito.when(shards.self()).thenReturn(0);
+        Mockito.when(shards.ownerOf(1L)).thenReturn(0);
+        Mockito.when(shards.ownerOf(2L)).thenReturn(1);
+        ShardClient unreachable = Mockito.mock(ShardClient.class);
+        Mockito.when(unreachable.makeAll(Mockito.any(), Mockito.any()))
+            .thenReturn(Uni.createFrom().failure(
+                new IllegalStateException("Connection refused")));
+        Mockito.when(shards.client(1)).thenReturn(unreachable);
+        ReservationsRepository repository =
+            new InMemoryReservationsRepository();
+        ReservationResource resource = new ReservationResource(repository,
+            null, null, null, null, null, null, shards,
+            Mockito.mock(Replica.class));
+        Field context = ReservationResource.class.getDeclaredField(
+            "context");
+        context.setAccessible(true);
+        context.set(resource, Mockito.mock(SecurityContext.class));
+
+        List<ReservationResult> results = resource.makeAll(List.of(
+            reservation(2L), reservation(1L)));
+
+        Assertions.assertEquals(List.of(
+                ReservationResult.Status.UNAVAILABLE,
+                ReservationResult.Status.CREATED),
+            results.stream().map(result -> result.status).toList());
+        Assertions.assertEquals(List.of(0, 1),
+            results.stream().map(result -> result.index).toList());
+        Assertions.assertEquals(1, repository.count());
+    }
+
+    @Test
+    public void testCallsToPeersAreTimed() {
+        LocalDate day = LocalDate.parse("2025-01-01");
+        ShardClient peer = Mockito.mock(ShardClient.class);
+        Mockito.when(peer.availability(day, day)).thenReturn(
+            Uni.createFrom().item(List.<Car>of()),
+            Uni.createFrom().failure(new IllegalStateException("down")));
+        Mockito.when(peer.make("user", null, null))
+            .thenThrow(new IllegalStateException("down"));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ShardClient client = TimedClient.wrap(ShardClient.class, peer,
+            registry);
+
+        Uni<List<Car>> availability = client.availability(day, day);
+        // timed when subscribed, not when the call is set up
+        Assertions.assertEquals(0, timer(registry, "availability"));
+        availability.await().indefinitely();
+        Assertions.assertThrows(IllegalStateException.class,
+            () -> client.availability(day, day).await().indefinitely());
+        Assertions.assertThrows(IllegalStateException.class,
+            () -> client.make("user", null, null));
+
+        Assertions.assertEquals(2, timer(registry, "availability"));
+        Assertions.assertEquals(1, timer(registry, "make"));
+    }
+
+    private static Reservation reservation(long carId) {
+        Reservation reservation = new Reservation();
+        reservation.carId = carId;
+        reservation.startDay = LocalDate.now().plusDays(10);
+        reservation.endDay = reservation.startDay;
+        return reservation;
+    }
+
+    private static long timer(SimpleMeterRegistry registry, String method) {
+        return registry.get("client.latency")
+            .tag("class", ShardClient.class.getName())
+            .tag("method", method).timer().count();
+    }
+}
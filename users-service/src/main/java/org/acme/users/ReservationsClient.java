@@ -1,5 +1,6 @@
 package org.acme.users;
 
+import io.micrometer.core.annotation.Timed;
 import io.quarkus.oidc.token.propagation.AccessToken;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
@@ -7,6 +8,7 @@ import jakarta.ws.rs.Path;
 import org.acme.users.model.Car;
 import org.acme.users.model.Reservation;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+import org.jboss.resteasy.reactive.RestHeader;
 import org.jboss.resteasy.reactive.RestQuery;
 
 import java.time.LocalDate;
@@ -15,14 +17,20 @@ import java.util.Collection;
 @RegisterRestClient(baseUri = "http://localhost:8081")
 @AccessToken
 @Path("reservation")
+@Timed(value = "client.latency", histogram = true)
 public interface ReservationsClient {
 
     @GET
     @Path("all")
     Collection<Reservation> allReservations();
 
+    /**
+     * @param key sent again with a retried reservation, so it is booked
+     * only once
+     */
     @POST
-    Reservation make(Reservation reservation);
+    Reservation make(Reservation reservation,
+                     @RestHeader("Idempotency-Key") String key);
 
     @GET
     @Path("availability")
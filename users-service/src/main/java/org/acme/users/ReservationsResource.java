@@ -1,5 +1,6 @@
 package org.acme.users;
 
+import io.micrometer.core.annotation.Timed;
 import io.quarkus.qute.CheckedTemplate;
 import io.quarkus.qute.TemplateInstance;
 import jakarta.inject.Inject;
@@ -7,7 +8,9 @@ import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.SecurityContext;
 import org.acme.users.model.Car;
 import org.acme.users.model.Reservation;
@@ -18,8 +21,10 @@ import org.jboss.resteasy.reactive.RestResponse;
 
 import java.time.LocalDate;
 import java.util.Collection;
+import java.util.UUID;
 
 @Path("/")
+@Timed(value = "endpoint.latency", histogram = true)
 public class ReservationsResource {
 
     @CheckedTemplate
@@ -30,12 +35,14 @@ public class ReservationsResource {
             String name);
 
         public static native TemplateInstance listofreservations(
-            Collection<Reservation> reservations);
+            Collection<Reservation> reservations,
+            String message);
 
         public static native TemplateInstance availablecars(
             Collection<Car> cars,
             LocalDate startDate,
-            LocalDate endDate);
+            LocalDate endDate,
+            String formId);
     }
 
     @Inject
@@ -62,9 +69,13 @@ public class ReservationsResource {
     @Produces(MediaType.TEXT_HTML)
     @Path("/get")
     public TemplateInstance getReservations() {
+        return listOfReservations(null);
+    }
+
+    private TemplateInstance listOfReservations(String message) {
         Collection<Reservation> reservationCollection
             = client.allReservations();
-        return Templates.listofreservations(reservationCollection);
+        return Templates.listofreservations(reservationCollection, message);
     }
 
     @GET
@@ -75,8 +86,10 @@ public class ReservationsResource {
         @RestQuery LocalDate endDate) {
         Collection<Car> availableCars
             = client.availability(startDate, endDate);
+        // every reserve form gets its own idempotency key, a form
+        // submitted twice books its car once
         return Templates.availablecars(
-            availableCars, startDate, endDate);
+            availableCars, startDate, endDate, UUID.randomUUID().toString());
     }
 
     @POST
@@ -85,14 +98,30 @@ public class ReservationsResource {
     public RestResponse<TemplateInstance> create(
         @RestForm LocalDate startDate,
         @RestForm LocalDate endDate,
-        @RestForm Long carId) {
+        @RestForm Long carId,
+        @RestForm String idempotencyKey) {
         Reservation reservation = new Reservation();
         reservation.startDay = startDate;
         reservation.endDay = endDate;
         reservation.carId = carId;
-        client.make(reservation);
+        String message = null;
+        try {
+            client.make(reservation, idempotencyKey);
+        } catch (WebApplicationException e) {
+            // shown with the reservations, instead of an error page
+            int status = e.getResponse().getStatus();
+            if (status == Response.Status.CONFLICT.getStatusCode()) {
+                message = "Car " + carId + " is no longer available from "
+                    + startDate + " to " + endDate + ".";
+            } else if (status ==
+                Response.Status.SERVICE_UNAVAILABLE.getStatusCode()) {
+                message = "Reservations are busy, please try again.";
+            } else {
+                throw e;
+            }
+        }
         return RestResponse.ResponseBuilder
-            .ok(getReservations())
+            .ok(listOfReservations(message))
             .header("HX-Trigger-After-Swap",
             "update-available-cars-list")
         .build();
@@ -0,0 +1,43 @@
+package org.acme.users.tracing;
+
+import io.smallrye.common.vertx.ContextLocals;
+import io.smallrye.common.vertx.VertxContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Trace ids travel between services in the {@value #HEADER} header. The
+ * id of the request being handled is kept in its Vert.x duplicated
+ * context, which follows the request onto worker and virtual threads.
+ */
+public final class Tracing {
+
+    public static final String HEADER = "X-Trace-Id";
+
+    private static final String TRACE_ID = "trace-id";
+
+    private Tracing() {
+    }
+
+    /**
+     * @return the trace id of the request being handled, or a new one
+     * when called outside of a request
+     */
+    public static String traceId() {
+        if (VertxContext.isOnDuplicatedContext()) {
+            return ContextLocals.<String>get(TRACE_ID)
+                .orElseGet(Tracing::newId);
+        }
+        return newId();
+    }
+
+    static void enter(String traceId) {
+        if (VertxContext.isOnDuplicatedContext()) {
+            ContextLocals.put(TRACE_ID, traceId);
+        }
+    }
+
+    static String newId() {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
+}
@@ -0,0 +1,17 @@
+package org.acme.users.tracing;
+
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.client.ClientRequestFilter;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * Passes the trace id of the current request on to every REST client call
+ */
+@Provider
+public class TracingClientFilter implements ClientRequestFilter {
+
+    @Override
+    public void filter(ClientRequestContext request) {
+        request.getHeaders().putSingle(Tracing.HEADER, Tracing.traceId());
+    }
+}